@@ -1,5 +1,6 @@
 package simpledb.buffer;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.concurrency.LockAbortException;
@@ -11,21 +12,33 @@ import simpledb.tx.concurrency.LockAbortException;
  * the number of times the buffer has been pinned,
  * whether its contents have been modified,
  * and if so, the id and lsn of the modifying transaction.
+ * The pin count is atomic, so that a buffer that is already
+ * pinned can be pinned again and unpinned without taking
+ * the lock of its buffer partition.
+ * A pin count of -1 means that the buffer is unpinned but
+ * claimed by a background thread for I/O;
+ * it can then be neither pinned nor replaced.
+ * The id and lsn of the modifying transaction are volatile,
+ * since the background writer marks the buffers it has
+ * written clean without holding the partition's lock.
  * @author Edward Sciore
  */
 public class Buffer {
    private FileMgr fm;
    private LogMgr lm;
    private Page contents;
-   private BlockId blk = null;
-   private int pins = 0;
-   private int txnum = -1;
-   private int lsn = -1;
+   private volatile BlockId blk = null;
+   private AtomicInteger pins = new AtomicInteger();
+   private volatile int txnum = -1;
+   private volatile int lsn = -1;
+   private DirtyTable dirtyTable;
+   private boolean prefetched = false;
+   private volatile boolean pinnedAgain = false;
 
    public Buffer(FileMgr fm, LogMgr lm) {
       this.fm = fm;
       this.lm = lm;
-      contents = new Page(fm.blockSize());
+      contents = fm.arena().allocate();
    }
    
    public Page contents() {
@@ -41,7 +54,17 @@ public class Buffer {
       return blk;
    }
 
+   /**
+    * Records that the specified transaction has modified
+    * the buffer. If the buffer was clean or belonged to
+    * another transaction, then it is added to the
+    * modifying transaction's dirty buffers.
+    * @param txnum the id of the modifying transaction
+    * @param lsn the LSN of the log record, or -1 if there is none
+    */
    public void setModified(int txnum, int lsn) {
+      if (txnum != this.txnum && dirtyTable != null)
+         dirtyTable.add(txnum, this);
       this.txnum = txnum;
       if (lsn >= 0)
          this.lsn = lsn;
@@ -49,11 +72,21 @@ public class Buffer {
 
    /**
     * Return true if the buffer is currently pinned
-    * (that is, if it has a nonzero pin count).
+    * (that is, if it has a nonzero pin count),
+    * or is claimed for I/O.
     * @return true if the buffer is pinned
     */
    public boolean isPinned() {
-      return pins > 0;
+      return pins.get() != 0;
+   }
+
+   /**
+    * Return true if the buffer is claimed for I/O
+    * by a background thread.
+    * @return true if the buffer is claimed
+    */
+   boolean isClaimed() {
+      return pins.get() < 0;
    }
    
    public int modifyingTx() {
@@ -71,9 +104,45 @@ public class Buffer {
       flush();
       blk = b;
       fm.read(blk, contents);
-      pins = 0;
+      pins.set(0);
    }
    
+   /**
+    * Assigns the buffer to the specified block and claims it,
+    * so that its contents can be read by {@link #load()}
+    * without holding the partition's lock.
+    * If the buffer was dirty, then its previous contents
+    * are first written to disk.
+    * @param b a reference to the data block
+    * @param prefetch true if the block is read ahead of its pin
+    */
+   void claimForBlock(BlockId b, boolean prefetch) {
+      flush();
+      blk = b;
+      prefetched = prefetch;
+      pins.set(-1);
+   }
+
+   /**
+    * Reads the contents of the buffer's block
+    * into the claimed buffer.
+    */
+   void load() {
+      fm.read(blk, contents);
+   }
+
+   /**
+    * Returns true if the buffer was filled by the prefetcher
+    * and has not been pinned since, and clears that status.
+    * Called while the lock of the buffer's partition is held.
+    * @return true if the buffer holds an unused prefetched block
+    */
+   boolean takePrefetched() {
+      boolean b = prefetched;
+      prefetched = false;
+      return b;
+   }
+
    /**
     * Write the buffer to its disk block if it is dirty.
     */
@@ -85,17 +154,126 @@ public class Buffer {
       }
    }
 
+   /**
+    * Gives the buffer's page back to the page arena,
+    * when the buffer is removed from the pool.
+    */
+   void free() {
+      fm.arena().free(contents);
+   }
+
+   /**
+    * Sets the table in which the buffer's modifying
+    * transactions are recorded.
+    * @param dirtyTable the dirty table of the buffer's partition
+    */
+   void setDirtyTable(DirtyTable dirtyTable) {
+      this.dirtyTable = dirtyTable;
+   }
+
+   int lsn() {
+      return lsn;
+   }
+
+   /**
+    * Record that the buffer's contents have been written
+    * to disk by someone else, such as the background writer.
+    */
+   void markClean() {
+      txnum = -1;
+   }
+
+   /**
+    * Claim the unpinned buffer for I/O, so that it can be
+    * neither pinned nor replaced until it is released.
+    * Called while the lock of the buffer's partition is held.
+    * @return true if the buffer was unpinned and is now claimed
+    */
+   boolean claim() {
+      return pins.compareAndSet(0, -1);
+   }
+
+   /**
+    * Release a claimed buffer.
+    */
+   void release() {
+      pins.set(0);
+   }
+
+   /**
+    * Turn a claimed buffer into a buffer pinned once,
+    * for the thread that claimed it.
+    */
+   void pinClaimed() {
+      pins.set(1);
+   }
+
    /**
     * Increase the buffer's pin count.
     */
    void pin() {
-      pins++;
+      pins.incrementAndGet();
    }
 
    /**
     * Decrease the buffer's pin count.
     */
    void unpin() {
-      pins--;
+      pins.decrementAndGet();
+   }
+
+   /**
+    * Increase the buffer's pin count, provided that
+    * the buffer is already pinned.
+    * A pinned buffer cannot be replaced, so this needs no lock;
+    * but the caller must check that the buffer still holds
+    * the block it looked up.
+    * @return true if the buffer was pinned
+    */
+   boolean pinIfPinned() {
+      int n = pins.get();
+      while (n > 0) {
+         if (pins.compareAndSet(n, n+1)) {
+            pinnedAgain = true;
+            return true;
+         }
+         n = pins.get();
+      }
+      return false;
+   }
+
+   /**
+    * Records that the buffer has been pinned again while
+    * already pinned, which the replacement policy is told
+    * of when the buffer is unpinned.
+    */
+   void markPinnedAgain() {
+      pinnedAgain = true;
+   }
+
+   /**
+    * Returns true if the buffer has been pinned again while
+    * already pinned since the last call, and clears that status.
+    */
+   boolean takePinnedAgain() {
+      if (!pinnedAgain)
+         return false;
+      pinnedAgain = false;
+      return true;
+   }
+
+   /**
+    * Decrease the buffer's pin count, provided that
+    * the buffer stays pinned afterwards.
+    * @return true if the buffer was unpinned
+    */
+   boolean unpinIfShared() {
+      int n = pins.get();
+      while (n > 1) {
+         if (pins.compareAndSet(n, n-1))
+            return true;
+         n = pins.get();
+      }
+      return false;
    }
 }
\ No newline at end of file
@@ -1,17 +1,38 @@
 package simpledb.buffer;
 
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * The buffer pool is striped into partitions; each block is
+ * hashed to a partition, which has its own lock, page table,
+ * {@link ReplacementPolicy replacement policy} and waiting list.
+ * A block whose buffer is already pinned is pinned again,
+ * and a buffer that stays pinned is unpinned,
+ * without taking any lock.
+ * A {@link BufferWriter background writer} keeps writing
+ * dirty, unpinned buffers to disk, and a prefetcher reads
+ * blocks ahead of transactions that scan a file sequentially.
  * @author Edward Sciore
  *
  */
 public class BufferMgr {
-   private Buffer[] bufferpool;
-   private int numAvailable;
-   private static final long MAX_TIME = 10000; // 10 seconds
+   public static final int DEFAULT_PARTITIONS = 16;
+   public static int MIN_PARTITION_SIZE = 64;
+   public static int PREFETCH_DEPTH = 8;
+
+   private BufferPartition[] partitions;
+   private LongAdder sharedHits = new LongAdder();
+   private BufferWriter writer;
+   private Prefetcher prefetcher;
+   private WarmList warmList;
+   private FileMgr fm;
+   private LogMgr lm;
+   private volatile boolean stopped = false;
    
    /**
     * Creates a buffer manager having the specified number 
@@ -21,42 +42,337 @@ public class BufferMgr {
     * @param numbuffs the number of buffer slots to allocate
     */
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
+      this(fm, lm, numbuffs, ReplacementPolicy.PolicyType.LRU);
+   }
+   
+   /**
+    * Creates a buffer manager having the specified number
+    * of buffer slots and replacement policy.
+    * Small pools have a single partition, so that every
+    * buffer is available to every block.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param type the replacement policy
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, ReplacementPolicy.PolicyType type) {
+      this(fm, lm, numbuffs, type, DEFAULT_PARTITIONS);
+   }
+
+   /**
+    * Creates a buffer manager having the specified number
+    * of buffer slots and replacement policy, striped into
+    * at most the specified number of partitions.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param type the replacement policy
+    * @param maxparts the largest number of partitions
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, ReplacementPolicy.PolicyType type, int maxparts) {
+      if (maxparts < 1)
+         throw new IllegalArgumentException("the buffer pool needs at least 1 partition");
+      this.fm = fm;
+      this.lm = lm;
+      int numparts = Math.max(1, Math.min(maxparts, numbuffs / MIN_PARTITION_SIZE));
+      partitions = new BufferPartition[numparts];
+      writer = new BufferWriter(fm, lm);
+      for (int i=0; i<numparts; i++)
+         partitions[i] = new BufferPartition(ReplacementPolicy.getPolicy(type), writer);
       for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer(fm, lm);
+         partitions[i % numparts].addBuffer(new Buffer(fm, lm));
+      writer.start(partitions);
+      prefetcher = new Prefetcher(fm, this);
+      prefetcher.start();
    }
    
    /**
-    * Returns the number of available (i.e. unpinned) buffers.
+    * Returns the number of available (i.e. unpinned) buffers
+    * that are not reserved by a transaction.
     * @return the number of available buffers
     */
-   public synchronized int available() {
+   public int available() {
+      int numAvailable = 0;
+      for (BufferPartition part : partitions)
+         numAvailable += part.available();
       return numAvailable;
    }
    
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Returns the total number of buffers in the pool.
+    * @return the size of the buffer pool
+    */
+   public int poolSize() {
+      int size = 0;
+      for (BufferPartition part : partitions)
+         size += part.size();
+      return size;
+   }
+   
+   /**
+    * Grows or shrinks the buffer pool to the specified
+    * number of buffers, without stopping the database.
+    * The number of partitions stays the same, and the
+    * buffers are spread evenly over them.
+    * New buffers wake up the threads waiting for a buffer.
+    * Excess buffers are removed once they are unpinned.
+    * @param numbuffs the new number of buffers
+    */
+   public synchronized void resize(int numbuffs) {
+      if (numbuffs < partitions.length)
+         throw new RuntimeException("the pool needs at least "
+               + partitions.length + " buffers");
+      for (int i=0; i<partitions.length; i++) {
+         int target = numbuffs / partitions.length
+                    + (i < numbuffs % partitions.length ? 1 : 0);
+         partitions[i].resize(target, () -> new Buffer(fm, lm));
+      }
+   }
+   
+   /**
+    * Returns the number of pins that found their block
+    * already in the pool.
+    * @return the number of buffer hits
+    */
+   public int hits() {
+      int hits = sharedHits.intValue();
+      for (BufferPartition part : partitions)
+         hits += part.hits();
+      return hits;
+   }
+   
+   /**
+    * Returns the number of pins that had to read their block
+    * into a replaced buffer.
+    * @return the number of buffer misses
+    */
+   public int misses() {
+      int misses = 0;
+      for (BufferPartition part : partitions)
+         misses += part.misses();
+      return misses;
+   }
+   
+   /**
+    * Returns the fraction of pins that were hits.
+    * @return the hit ratio, or 0 if nothing has been pinned
+    */
+   public double hitRatio() {
+      int hits = hits();
+      int pins = hits + misses();
+      return (pins == 0) ? 0 : (double) hits / pins;
+   }
+   
+   /**
+    * Returns the number of pins that had to write out
+    * a dirty buffer before they could replace it;
+    * a large value means the background writer is falling behind.
+    * @return the number of dirty replacements
+    */
+   public int dirtyReplacements() {
+      int n = 0;
+      for (BufferPartition part : partitions)
+         n += part.dirtyReplacements();
+      return n;
+   }
+   
+   /**
+    * Returns the number of pages written by the background writer.
+    * @return the number of pages written
+    */
+   public long backgroundWrites() {
+      return writer.pagesWritten();
+   }
+   
+   /**
+    * Returns the number of blocks that a sequential scan
+    * should read ahead. The depth is kept small
+    * compared to the pool, and to the scan's ring.
+    * @param ring the scan's ring of buffers, or null
+    * @return the prefetch depth
+    */
+   public int prefetchDepth(BufferRing ring) {
+      int depth = Math.min(PREFETCH_DEPTH, poolSize() / 8);
+      if (ring != null)
+         depth = Math.min(depth, ring.size() / 2);
+      return depth;
+   }
+   
+   /**
+    * Asks the prefetcher to read the specified block
+    * into the pool in the background.
+    * @param blk a reference to a disk block
+    * @param ring the ring of the scan that will read the block, or null
+    * @param ra the sequence that the block belongs to
+    */
+   void prefetch(BlockId blk, BufferRing ring, Readahead ra) {
+      prefetcher.request(blk, ring, ra);
+   }
+   
+   /**
+    * Returns the number of blocks read by the prefetcher,
+    * or by the warm-up after a restart.
+    * @return the number of prefetched blocks
+    */
+   public int prefetches() {
+      int n = 0;
+      for (BufferPartition part : partitions)
+         n += part.prefetches();
+      return n;
+   }
+   
+   /**
+    * Returns the number of pins that found a prefetched block.
+    * @return the number of prefetch hits
+    */
+   public int prefetchHits() {
+      int n = 0;
+      for (BufferPartition part : partitions)
+         n += part.prefetchHits();
+      return n;
+   }
+   
+   /**
+    * Returns the number of prefetched blocks that
+    * were replaced before anyone pinned them.
+    * @return the number of wasted prefetches
+    */
+   public int wastedPrefetches() {
+      int n = 0;
+      for (BufferPartition part : partitions)
+         n += part.wastedPrefetches();
+      return n;
+   }
+   
+   /**
+    * Reads the specified block into an unpinned buffer,
+    * unless it is already in the pool.
+    * Called by the prefetcher.
+    */
+   void load(BlockId blk, BufferRing ring) {
+      partitionFor(blk).load(blk, ring, false);
+   }
+   
+   /**
+    * Reads the blocks saved in the specified warm-up file
+    * back into the pool, in a background thread.
+    * The blocks are read in file and block order, and only
+    * into buffers that hold no block, so that the warm-up
+    * never replaces a block that a transaction has read.
+    * The same file is rewritten by {@link #saveWarmList()}.
+    * @param file the warm-up file
+    */
+   public void warmUp(File file) {
+      warmList = new WarmList(file);
+      List<BlockId> blocks = warmList.load();
+      Thread t = new Thread(() -> {
+         for (BlockId blk : blocks) {
+            if (stopped)
+               return;
+            // a file that is gone, such as a dropped index,
+            // must not be created again
+            String filename = blk.fileName();
+            if (fm.exists(filename) && blk.number() < fm.length(filename))
+               partitionFor(blk).load(blk, null, true);
+         }
+      }, "buffer warm-up");
+      t.setDaemon(true);
+      t.start();
+   }
+   
+   /**
+    * Saves the list of blocks that are currently in the pool
+    * to the warm-up file, so that the next startup
+    * can read them back. Temporary tables are left out.
+    * Does nothing if no warm-up file has been set.
+    */
+   public void saveWarmList() {
+      if (warmList == null)
+         return;
+      List<BlockId> blocks = new ArrayList<>();
+      for (BufferPartition part : partitions)
+         for (BlockId blk : part.residentBlocks())
+            if (!blk.fileName().startsWith("temp"))
+               blocks.add(blk);
+      warmList.save(blocks);
+   }
+   
+   /**
+    * Stops the background threads of the buffer manager.
+    * Called when the database is shut down.
+    */
+   public void shutdown() {
+      stopped = true;
+      prefetcher.stop();
+      writer.stop();
+   }
+   
+   /**
+    * Flushes the dirty buffers modified by the specified transaction,
+    * and then syncs the files that the transaction modified,
+    * so that all of its changes are on disk.
+    * Each partition remembers which buffers the transaction
+    * modified, so the pool itself is not scanned.
     * @param txnum the transaction's id number
     */
-   public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.modifyingTx() == txnum)
-         buff.flush();
+   public void flushAll(int txnum) {
+      Set<String> files = new HashSet<>();
+      for (BufferPartition part : partitions)
+         part.flushAll(txnum, files);
+      for (String filename : files)
+         fm.sync(filename);
+   }
+   
+   /**
+    * Writes the dirty buffers that are not pinned, in batches,
+    * the way the background writer does, while transactions
+    * keep running.
+    * Used by checkpoints, so that the changes made before
+    * a checkpoint reach the disk in the background, rather
+    * than when their transactions commit.
+    */
+   public void writeDirtyBuffers() {
+      int rounds = poolSize() / BufferWriter.BATCH_SIZE + 1;
+      for (int i=0; i<rounds; i++) {
+         if (writer.writeDirtyBuffers() == 0)
+            break;
+      }
+   }
+
+   /**
+    * Flushes every dirty buffer in the pool, and syncs
+    * every database file, as a checkpoint requires.
+    */
+   public void flushAll() {
+      for (BufferPartition part : partitions)
+         part.flushAll();
+      fm.syncAll();
    }
    
    
+   /**
+    * Discards the blocks of the specified file from the pool
+    * without writing them, before the file is deleted.
+    * The prefetch requests for the file are cancelled first,
+    * so that the prefetcher neither brings its blocks back
+    * nor creates the file again once it is gone.
+    * None of the file's blocks may be pinned.
+    * If a background thread keeps one of the file's buffers
+    * for longer than the maximum waiting time, a
+    * {@link BufferAbortException} is thrown, and the
+    * file must not be deleted.
+    * @param filename the name of the file
+    */
+   public void discard(String filename) {
+      prefetcher.cancel(filename);
+      for (BufferPartition part : partitions)
+         part.discard(filename);
+   }
+   
    /**
     * Unpins the specified data buffer. If its pin count
-    * goes to zero, then notify any waiting threads.
+    * goes to zero, then notify a waiting thread.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      buff.unpin();
-      if (!buff.isPinned()) {
-         numAvailable++;
-         notifyAll();
-      }
+   public void unpin(Buffer buff) {
+      if (!buff.unpinIfShared())
+         partitionFor(buff.block()).unpin(buff);
    }
    
    /**
@@ -67,63 +383,172 @@ public class BufferMgr {
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = tryToPin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = tryToPin(blk);
+   public Buffer pin(BlockId blk) {
+      return pin(blk, null);
+   }
+   
+   /**
+    * Pins a buffer to the specified block on behalf of
+    * a sequential scan.
+    * If the block is not in the pool, then the scan's ring
+    * supplies the buffer to replace whenever it can,
+    * so that the scan does not evict other blocks.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring of buffers, or null
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk, BufferRing ring) {
+      BufferPartition part = partitionFor(blk);
+      Buffer buff = part.lookup(blk);
+      if (buff != null && buff.pinIfPinned()) {
+         if (blk.equals(buff.block())) {
+            sharedHits.increment();
+            return buff;
          }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
-      }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+         unpin(buff);  // the buffer was replaced in the meantime
       }
-   }  
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+      return part.pin(blk, ring);
    }
    
    /**
-    * Tries to pin a buffer to the specified block. 
-    * If there is already a buffer assigned to that block
-    * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
-    * Returns a null value if there are no available buffers.
+    * Pins a buffer to the specified block on behalf of
+    * a transaction that has reserved buffers and does not
+    * yet have the block pinned.
+    * A buffer of the reservation is used if the reservation
+    * has one left in the block's partition; otherwise
+    * the pin is an ordinary one.
+    * Either way, the block counts as held by the reservation
+    * until it is unpinned by {@link #unpin(Buffer, BufferReservation)}.
     * @param blk a reference to a disk block
-    * @return the pinned buffer
-    */
-   private Buffer tryToPin(BlockId blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
-         if (buff == null)
-            return null;
-         buff.assignToBlock(blk);
+    * @param ring the scan's ring of buffers, or null
+    * @param res the transaction's reservation
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk, BufferRing ring, BufferReservation res) {
+      int p = partitionIndex(blk);
+      boolean useReserved = res.covers(p);
+      Buffer buff = partitions[p].lookup(blk);
+      if (buff != null && buff.pinIfPinned()) {
+         if (blk.equals(buff.block())) {
+            sharedHits.increment();
+            if (useReserved)
+               partitions[p].addReserved(-1);
+            res.pinned(p);
+            return buff;
+         }
+         unpin(buff);
       }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
+      buff = partitions[p].pin(blk, ring, useReserved);
+      res.pinned(p);
       return buff;
    }
-   
-   private Buffer findExistingBuffer(BlockId blk) {
-      for (Buffer buff : bufferpool) {
-         BlockId b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+
+   /**
+    * Pins buffers to a run of consecutive blocks of a file.
+    * The blocks that are not in the pool are assigned to
+    * buffers first, and each run of consecutive ones is then
+    * read with a single scattering read, instead of one read
+    * per block. A block that is already in the pool, or
+    * whose partition has no buffer to spare right now,
+    * is pinned in the ordinary way.
+    * @param first the first block of the run
+    * @param n the number of blocks
+    * @param ring the scan's ring of buffers, or null
+    * @param res the transaction's reservation, or null;
+    *        if given, none of the blocks may already be
+    *        pinned by the transaction
+    * @return the buffers pinned to the blocks, in block order
+    */
+   public Buffer[] pinRange(BlockId first, int n, BufferRing ring, BufferReservation res) {
+      Buffer[] buffs = new Buffer[n];
+      boolean[] claimed = new boolean[n];
+      for (int i=0; i<n; i++) {
+         BlockId blk = new BlockId(first.fileName(), first.number() + i);
+         int p = partitionIndex(blk);
+         buffs[i] = partitions[p].claimForRead(blk, ring, res != null && res.covers(p));
+         if (buffs[i] != null) {
+            claimed[i] = true;
+            if (res != null)
+               res.pinned(p);
+         }
       }
-      return null;
+
+      boolean loaded = false;
+      try {
+         readClaimed(buffs, claimed);
+         loaded = true;
+      }
+      finally {
+         for (int i=0; i<n; i++)
+            if (claimed[i])
+               partitionFor(buffs[i].block()).finishRead(buffs[i], loaded);
+         if (!loaded)
+            for (int i=0; i<n; i++)
+               if (claimed[i]) {
+                  if (res != null)
+                     unpin(buffs[i], res);
+                  else
+                     unpin(buffs[i]);
+               }
+      }
+
+      for (int i=0; i<n; i++)
+         if (!claimed[i]) {
+            BlockId blk = new BlockId(first.fileName(), first.number() + i);
+            buffs[i] = (res != null) ? pin(blk, ring, res) : pin(blk, ring);
+         }
+      return buffs;
    }
-   
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+
+   /**
+    * Reads the blocks of the claimed buffers,
+    * one run of consecutive blocks at a time.
+    */
+   private void readClaimed(Buffer[] buffs, boolean[] claimed) {
+      int start = 0;
+      while (start < buffs.length) {
+         if (!claimed[start]) {
+            start++;
+            continue;
+         }
+         int end = start + 1;
+         while (end < buffs.length && claimed[end])
+            end++;
+         Page[] pages = new Page[end - start];
+         for (int i=start; i<end; i++)
+            pages[i-start] = buffs[i].contents();
+         fm.read(buffs[start].block(), pages);
+         start = end;
+      }
+   }
+
+   /**
+    * Unpins a buffer that was pinned by
+    * {@link #pin(BlockId, BufferRing, BufferReservation)},
+    * when the transaction no longer has its block pinned.
+    * The buffer goes back to the reservation.
+    * @param buff the buffer to be unpinned
+    * @param res the transaction's reservation
+    */
+   public void unpin(Buffer buff, BufferReservation res) {
+      int p = partitionIndex(buff.block());
+      res.unpinned(p);
+      unpin(buff);
+   }
+
+   int numPartitions() {
+      return partitions.length;
+   }
+
+   BufferPartition partition(int i) {
+      return partitions[i];
+   }
+
+   private int partitionIndex(BlockId blk) {
+      return Math.floorMod(blk.hashCode(), partitions.length);
+   }
+
+   private BufferPartition partitionFor(BlockId blk) {
+      return partitions[partitionIndex(blk)];
    }
 }
@@ -0,0 +1,625 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.Supplier;
+import simpledb.file.BlockId;
+
+/**
+ * One stripe of the buffer pool.
+ * Each block is hashed to a partition, and can only be
+ * assigned to one of that partition's buffers.
+ * A partition has its own lock, page table, replacement policy
+ * and wait queue, so that pins of blocks in different
+ * partitions never contend with each other.
+ * The page table is concurrent so that a block whose buffer
+ * is already pinned can be found and pinned without the lock.
+ */
+class BufferPartition {
+   private static final long MAX_TIME = 10000; // 10 seconds
+
+   private List<Buffer> buffers = new ArrayList<>();
+   private Map<BlockId,Buffer> pageTable = new ConcurrentHashMap<>();
+   private ReplacementPolicy policy;
+   private DirtyTable dirtyTable = new DirtyTable();
+   private volatile int numAvailable = 0;
+   private int waiters = 0;
+   private int excess = 0;
+   private int reserved = 0;
+   private int hits = 0, misses = 0, dirtyReplacements = 0;
+   private int prefetches = 0, prefetchHits = 0, wastedPrefetches = 0;
+   private ReentrantLock lock = new ReentrantLock();
+   private Condition bufferFreed = lock.newCondition();
+   private BufferWriter writer;
+
+   BufferPartition(ReplacementPolicy policy, BufferWriter writer) {
+      this.policy = policy;
+      this.writer = writer;
+   }
+
+   /**
+    * Adds a new, unassigned buffer to the partition.
+    * @param buff the buffer
+    */
+   void addBuffer(Buffer buff) {
+      lock.lock();
+      try {
+         buffers.add(buff);
+         buff.setDirtyTable(dirtyTable);
+         numAvailable++;
+         policy.unpinned(buff);
+         if (waiters > 0)
+            bufferFreed.signalAll();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   int size() {
+      return buffers.size() - excess;
+   }
+
+   /**
+    * Grows or shrinks the partition to the specified number of buffers.
+    * New buffers are available at once, and wake the waiting threads.
+    * Excess buffers are removed if they are unpinned;
+    * the others are removed as soon as they become unpinned.
+    * @param target the new number of buffers
+    * @param newBuffer creates a buffer when the partition grows
+    */
+   void resize(int target, Supplier<Buffer> newBuffer) {
+      lock.lock();
+      try {
+         excess = 0;
+         while (buffers.size() < target)
+            addBuffer(newBuffer.get());
+         while (buffers.size() > target) {
+            Buffer buff = policy.chooseUnpinnedBuffer();
+            if (buff == null)
+               break;
+            numAvailable--;
+            remove(buff);
+         }
+         excess = buffers.size() - target;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes an unpinned buffer from the partition,
+    * writing it to disk first if it is dirty.
+    * The caller must already have taken the buffer out of
+    * the count of available buffers.
+    */
+   private void remove(Buffer buff) {
+      buff.flush();
+      evict(buff);
+      buffers.remove(buff);
+      policy.removed(buff);
+      buff.free();
+   }
+
+   /**
+    * Returns the number of available buffers
+    * that are not reserved.
+    */
+   int available() {
+      return Math.max(0, numAvailable - reserved);
+   }
+
+   int hits() {
+      return hits;
+   }
+
+   int misses() {
+      return misses;
+   }
+
+   int dirtyReplacements() {
+      return dirtyReplacements;
+   }
+
+   int prefetches() {
+      return prefetches;
+   }
+
+   int prefetchHits() {
+      return prefetchHits;
+   }
+
+   int wastedPrefetches() {
+      return wastedPrefetches;
+   }
+
+   /**
+    * Returns the buffer assigned to the specified block, or null.
+    * The caller must not rely on the buffer still holding
+    * the block unless it has pinned the buffer.
+    * @param blk a reference to a disk block
+    * @return the buffer assigned to the block, or null
+    */
+   Buffer lookup(BlockId blk) {
+      return pageTable.get(blk);
+   }
+
+   /**
+    * Returns the blocks currently assigned to the partition's buffers.
+    * @return the resident blocks
+    */
+   Collection<BlockId> residentBlocks() {
+      return new ArrayList<>(pageTable.keySet());
+   }
+
+   /**
+    * Returns true if the specified buffer belongs to this partition.
+    * @param buff a buffer
+    */
+   boolean holds(Buffer buff) {
+      BlockId b = buff.block();
+      return b != null && pageTable.get(b) == buff;
+   }
+
+   /**
+    * Flushes the dirty buffers modified by the specified transaction.
+    * Only the buffers in the transaction's entry of the
+    * dirty table are examined; a buffer that has since been
+    * written out or modified by another transaction is skipped.
+    * A buffer that the background writer has claimed is waited
+    * for, since the writer shares the buffer's page; the writer
+    * has usually written it out by the time it is released.
+    * @param txnum the transaction's id number
+    * @param files collects the files that the transaction modified
+    */
+   void flushAll(int txnum, Set<String> files) {
+      Set<String> txfiles = dirtyTable.removeFiles(txnum);
+      if (txfiles != null)
+         files.addAll(txfiles);
+      Set<Buffer> dirty = dirtyTable.remove(txnum);
+      if (dirty == null)
+         return;
+      lock.lock();
+      try {
+         for (Buffer buff : dirty) {
+            while (buff.isClaimed() && buff.modifyingTx() == txnum) {
+               waiters++;
+               try {
+                  bufferFreed.await(MAX_TIME, TimeUnit.MILLISECONDS);
+               }
+               finally {
+                  waiters--;
+               }
+            }
+            if (buff.modifyingTx() == txnum)
+               buff.flush();
+         }
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Flushes every dirty buffer of the partition,
+    * except those that the background writer is writing.
+    */
+   void flushAll() {
+      lock.lock();
+      try {
+         for (Buffer buff : buffers)
+            if (!buff.isClaimed())
+               buff.flush();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Discards the blocks of the specified file from the partition,
+    * without writing them, since the file is about to be deleted.
+    * A buffer that a background thread has claimed is waited for,
+    * so that it is not written after the file is gone.
+    * If such a buffer is still claimed after the maximum
+    * waiting time, a {@link BufferAbortException} is thrown,
+    * so that the file is not deleted under the writer.
+    * The file's blocks must not be pinned.
+    * @param filename the name of the file
+    */
+   void discard(String filename) {
+      lock.lock();
+      try {
+         long timestamp = System.currentTimeMillis();
+         boolean claimed = true;
+         while (claimed && !waitingTooLong(timestamp)) {
+            claimed = false;
+            for (Buffer buff : buffers) {
+               BlockId b = buff.block();
+               if (b == null || !b.fileName().equals(filename) || pageTable.get(b) != buff)
+                  continue;
+               if (buff.isClaimed())
+                  claimed = true;
+               else if (!buff.isPinned()) {
+                  buff.markClean();
+                  evict(buff);
+               }
+            }
+            if (claimed) {
+               waiters++;
+               try {
+                  bufferFreed.await(MAX_TIME, TimeUnit.MILLISECONDS);
+               }
+               finally {
+                  waiters--;
+               }
+            }
+         }
+         if (claimed)
+            throw new BufferAbortException();
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Reserves up to the specified number of buffers,
+    * out of those that are available and not yet reserved.
+    * @param n the number of buffers wanted
+    * @return the number of buffers reserved
+    */
+   int reserve(int n) {
+      lock.lock();
+      try {
+         int granted = Math.max(0, Math.min(n, numAvailable - reserved));
+         reserved += granted;
+         return granted;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Changes the number of reserved buffers.
+    * If buffers are returned, the waiting threads are woken up.
+    * @param delta the change in the number of reserved buffers
+    */
+   void addReserved(int delta) {
+      if (delta == 0)
+         return;
+      lock.lock();
+      try {
+         reserved += delta;
+         if (delta < 0 && waiters > 0)
+            bufferFreed.signalAll();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Claims up to the specified number of dirty, unpinned buffers
+    * for the background writer.
+    * @param max the maximum number of buffers to claim
+    * @return the claimed buffers
+    */
+   List<Buffer> claimDirty(int max) {
+      List<Buffer> claimed = new ArrayList<>();
+      lock.lock();
+      try {
+         for (Buffer buff : buffers) {
+            if (claimed.size() >= max)
+               break;
+            if (buff.modifyingTx() >= 0 && buff.claim())
+               claimed.add(buff);
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+      return claimed;
+   }
+
+   /**
+    * Releases buffers claimed by {@link #claimDirty(int)},
+    * and wakes any threads waiting to pin their blocks.
+    * @param claimed the claimed buffers
+    */
+   void release(List<Buffer> claimed) {
+      lock.lock();
+      try {
+         for (Buffer buff : claimed)
+            buff.release();
+         bufferFreed.signalAll();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Pins a buffer to the specified block, waiting until
+    * one of the partition's buffers becomes available.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring of buffers, or null
+    * @return the buffer pinned to that block
+    */
+   Buffer pin(BlockId blk, BufferRing ring) {
+      return pin(blk, ring, false);
+   }
+
+   /**
+    * Pins a buffer to the specified block, possibly using
+    * one of the buffers reserved for the calling transaction.
+    * Other pins may only use the buffers that are
+    * available and not reserved.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring of buffers, or null
+    * @param useReserved true if the pin uses a reserved buffer
+    * @return the buffer pinned to that block
+    */
+   Buffer pin(BlockId blk, BufferRing ring, boolean useReserved) {
+      lock.lock();
+      try {
+         long timestamp = System.currentTimeMillis();
+         Buffer buff = tryToPin(blk, ring, useReserved);
+         while (buff == null && !waitingTooLong(timestamp)) {
+            waiters++;
+            try {
+               bufferFreed.await(MAX_TIME, TimeUnit.MILLISECONDS);
+            }
+            finally {
+               waiters--;
+            }
+            buff = tryToPin(blk, ring, useReserved);
+         }
+         if (buff == null)
+            throw new BufferAbortException();
+         return buff;
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Reads the specified block into an unpinned buffer,
+    * unless the block is already in the partition.
+    * The buffer is assigned and claimed while the lock is held,
+    * and is read without it; threads that pin the block
+    * in the meantime wait until the read is done.
+    * The replacement policy sees the load as a pin and an unpin.
+    * @param blk a reference to a disk block
+    * @param ring the ring of the scan that will read the block, or null
+    * @param freeOnly true if only a buffer that holds no block may be used
+    * @return true if the block is in the partition afterwards
+    */
+   boolean load(BlockId blk, BufferRing ring, boolean freeOnly) {
+      Buffer buff;
+      lock.lock();
+      try {
+         if (pageTable.containsKey(blk))
+            return true;
+         if (numAvailable <= reserved)
+            return false;
+         buff = chooseUnpinnedBuffer(ring);
+         if (buff == null || (freeOnly && buff.block() != null))
+            return false;
+         evict(buff);
+         buff.claimForBlock(blk, true);
+         pageTable.put(blk, buff);
+         numAvailable--;
+         policy.pinned(buff);
+      }
+      finally {
+         lock.unlock();
+      }
+
+      boolean loaded = false;
+      try {
+         buff.load();
+         loaded = true;
+      }
+      finally {
+         lock.lock();
+         try {
+            if (!loaded)
+               pageTable.remove(blk, buff);
+            buff.release();
+            numAvailable++;
+            policy.unpinned(buff);
+            prefetches++;
+            bufferFreed.signalAll();
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Assigns an unpinned buffer to the specified block and claims it,
+    * so that the caller can read the block, together with others,
+    * without holding the lock; the caller then finishes the pin
+    * with {@link #finishRead(Buffer, boolean)}.
+    * The pin never waits: null is returned if the block is
+    * already in the partition, or no buffer is available,
+    * and the caller must pin the block in the ordinary way.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring of buffers, or null
+    * @param useReserved true if the pin uses a reserved buffer
+    * @return the claimed buffer, or null
+    */
+   Buffer claimForRead(BlockId blk, BufferRing ring, boolean useReserved) {
+      lock.lock();
+      try {
+         if (pageTable.containsKey(blk))
+            return null;
+         if (!useReserved && numAvailable <= reserved)
+            return null;
+         Buffer buff = chooseUnpinnedBuffer(ring);
+         if (buff == null)
+            return null;
+         if (buff.modifyingTx() >= 0) {
+            dirtyReplacements++;
+            writer.wakeUp();
+         }
+         evict(buff);
+         buff.claimForBlock(blk, false);
+         pageTable.put(blk, buff);
+         numAvailable--;
+         policy.pinned(buff);
+         misses++;
+         if (useReserved)
+            reserved--;
+         return buff;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Finishes a pin begun by {@link #claimForRead},
+    * and wakes the threads waiting for the block.
+    * If the read failed, the block is taken out of the
+    * page table, and the caller must unpin the buffer.
+    * @param buff the claimed buffer
+    * @param loaded true if the block was read into the buffer
+    */
+   void finishRead(Buffer buff, boolean loaded) {
+      lock.lock();
+      try {
+         if (!loaded)
+            pageTable.remove(buff.block(), buff);
+         buff.pinClaimed();
+         if (waiters > 0)
+            bufferFreed.signalAll();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Unpins the specified buffer. If its pin count
+    * goes to zero, then the waiting threads are woken up.
+    * All of them are woken, since the first may not be able
+    * to use the buffer, such as when it is shut out by the
+    * reserved buffers, and would otherwise swallow the wake-up.
+    * @param buff the buffer to be unpinned
+    */
+   void unpin(Buffer buff) {
+      lock.lock();
+      try {
+         buff.unpin();
+         if (!buff.isPinned() && excess > 0) {
+            // the partition is shrinking
+            excess--;
+            remove(buff);
+         }
+         else if (!buff.isPinned()) {
+            numAvailable++;
+            // the pins made while the buffer was pinned,
+            // most of them without the lock, count as one reference
+            if (buff.takePinnedAgain())
+               policy.pinned(buff);
+            policy.unpinned(buff);
+            if (waiters > 0)
+               bufferFreed.signalAll();
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   private boolean waitingTooLong(long starttime) {
+      return System.currentTimeMillis() - starttime > MAX_TIME;
+   }
+
+   /**
+    * Tries to pin a buffer to the specified block.
+    * If there is already a buffer assigned to that block
+    * then that buffer is used;
+    * otherwise, an unpinned buffer from the ring
+    * or from the partition is chosen.
+    * Returns a null value if there are no available buffers
+    * that the pin may use, or if the block's buffer
+    * is claimed for I/O.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring of buffers, or null
+    * @return the pinned buffer
+    */
+   private Buffer tryToPin(BlockId blk, BufferRing ring, boolean useReserved) {
+      Buffer buff = pageTable.get(blk);
+      boolean needsBuffer = (buff == null || !buff.isPinned());
+      if (needsBuffer && !useReserved && numAvailable <= reserved)
+         return null;
+      if (buff == null) {
+         buff = chooseUnpinnedBuffer(ring);
+         if (buff == null)
+            return null;
+         if (buff.modifyingTx() >= 0) {
+            // the background writer has fallen behind
+            dirtyReplacements++;
+            writer.wakeUp();
+         }
+         evict(buff);
+         buff.assignToBlock(blk);
+         pageTable.put(blk, buff);
+         misses++;
+      }
+      else if (buff.isClaimed())
+         return null;
+      else {
+         hits++;
+         if (buff.takePrefetched())
+            prefetchHits++;
+      }
+      if (!buff.isPinned()) {
+         numAvailable--;
+         policy.pinned(buff);
+      }
+      else
+         buff.markPinnedAgain();
+      buff.pin();
+      if (useReserved)
+         reserved--;
+      return buff;
+   }
+
+   private void evict(Buffer buff) {
+      if (buff.takePrefetched())
+         wastedPrefetches++;
+      if (buff.block() != null)
+         pageTable.remove(buff.block(), buff);
+   }
+
+   private Buffer chooseUnpinnedBuffer(BufferRing ring) {
+      if (ring == null)
+         return policy.chooseUnpinnedBuffer();
+      Buffer buff = ring.nextBuffer(this);
+      if (buff == null) {
+         buff = policy.chooseUnpinnedBuffer();
+         if (buff != null)
+            ring.add(buff);
+      }
+      return buff;
+   }
+}
@@ -0,0 +1,131 @@
+package simpledb.buffer;
+
+/**
+ * A number of buffers set aside for one transaction,
+ * so that an operator such as a chunk scan or a sort merge
+ * can pin its blocks without waiting for other transactions.
+ * <P>
+ * The reservation is spread evenly over the partitions of
+ * the pool, since consecutive blocks of a file hash to
+ * consecutive partitions.
+ * In each partition, the reservation has a share of buffers,
+ * and holds some number of blocks that its transaction pinned;
+ * the partition keeps the difference between the two
+ * out of the reach of other transactions.
+ * A reservation is used by one transaction at a time.
+ */
+public class BufferReservation {
+   private BufferMgr bm;
+   private int[] share, held;
+
+   /**
+    * Creates an empty reservation.
+    * @param bm the buffer manager
+    */
+   public BufferReservation(BufferMgr bm) {
+      this.bm = bm;
+      int n = bm.numPartitions();
+      share = new int[n];
+      held = new int[n];
+   }
+
+   /**
+    * Returns the number of buffers in the reservation.
+    * @return the size of the reservation
+    */
+   public int size() {
+      int size = 0;
+      for (int s : share)
+         size += s;
+      return size;
+   }
+
+   /**
+    * Adds up to the specified number of buffers to the reservation.
+    * Only buffers that are available and not reserved by another
+    * transaction are granted, so the caller is never made to wait.
+    * @param n the number of buffers wanted
+    * @return the number of buffers granted
+    */
+   public int reserve(int n) {
+      int granted = 0;
+      int numparts = share.length;
+      // first ask each partition for an even share,
+      // then ask again for whatever is still missing
+      for (int pass=0; pass<2 && granted<n; pass++)
+         for (int i=0; i<numparts && granted<n; i++) {
+            int want = (pass == 0) ? (n - granted + numparts - i - 1) / (numparts - i)
+                                   : n - granted;
+            // blocks already held beyond the share need no new buffers
+            int free = Math.min(want, Math.max(0, held[i] - share[i]));
+            int got = bm.partition(i).reserve(want - free);
+            share[i] += free + got;
+            granted += free + got;
+         }
+      return granted;
+   }
+
+   /**
+    * Returns up to the specified number of buffers
+    * from the reservation to the pool.
+    * @param n the number of buffers to return
+    */
+   public void release(int n) {
+      for (int i=share.length-1; i>=0 && n>0; i--) {
+         int dec = Math.min(n, share[i]);
+         setShare(i, share[i] - dec);
+         n -= dec;
+      }
+   }
+
+   /**
+    * Returns all of the reserved buffers to the pool.
+    * The blocks that the transaction still has pinned
+    * become ordinary pins.
+    */
+   public void releaseAll() {
+      for (int i=0; i<share.length; i++) {
+         setShare(i, 0);
+         held[i] = 0;
+      }
+   }
+
+   /**
+    * Returns true if a block of the specified partition
+    * may be pinned with one of the reserved buffers.
+    */
+   boolean covers(int part) {
+      return held[part] < share[part];
+   }
+
+   /**
+    * Records that the transaction pinned a new block
+    * of the specified partition.
+    * The partition has already used a reserved buffer if
+    * {@link #covers(int)} was true.
+    */
+   void pinned(int part) {
+      held[part]++;
+   }
+
+   /**
+    * Records that the transaction no longer has the block
+    * pinned, and gives its buffer back to the reservation.
+    * @param part the partition of the block
+    */
+   void unpinned(int part) {
+      int old = outstanding(part);
+      held[part]--;
+      bm.partition(part).addReserved(outstanding(part) - old);
+   }
+
+   private void setShare(int part, int n) {
+      int old = outstanding(part);
+      share[part] = n;
+      bm.partition(part).addReserved(outstanding(part) - old);
+   }
+
+   private int outstanding(int part) {
+      return Math.max(0, share[part] - held[part]);
+   }
+}
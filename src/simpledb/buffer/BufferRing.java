@@ -0,0 +1,87 @@
+package simpledb.buffer;
+
+/**
+ * A small private ring of buffers for a large sequential scan.
+ * When the scan misses, the buffer manager first tries to
+ * recycle the ring's next buffer, and only takes a buffer
+ * from the replacement policy if that buffer is still pinned.
+ * A scan of any length therefore replaces at most
+ * the ring's few buffers, instead of flushing out
+ * the working set of every other transaction.
+ * <P>
+ * A ring is used by one scan at a time.
+ * Its buffers may come from different partitions of the pool,
+ * and a partition only recycles the ring buffers it owns.
+ */
+public class BufferRing {
+   public static int RING_SIZE = 16;
+   public static double SCAN_FRACTION = 0.25;
+
+   private Buffer[] buffers;
+   private int current = 0;
+
+   /**
+    * Creates a ring having the specified number of buffers.
+    * The ring starts out empty and fills up
+    * as the scan reads its first blocks.
+    * @param size the number of buffers in the ring
+    */
+   public BufferRing(int size) {
+      buffers = new Buffer[size];
+   }
+
+   /**
+    * Returns a ring for a sequential scan of the
+    * specified number of blocks, or null if the scan
+    * is small enough compared to the buffer pool
+    * that it can share the pool.
+    * @param numblocks the number of blocks the scan will read
+    * @param poolsize the number of buffers in the pool
+    * @param minsize the number of buffers the scan keeps pinned at once
+    * @return a ring of buffers, or null
+    */
+   public static BufferRing forScan(int numblocks, int poolsize, int minsize) {
+      if (numblocks <= SCAN_FRACTION * poolsize)
+         return null;
+      int size = Math.max(minsize, Math.min(RING_SIZE, poolsize / 4));
+      return new BufferRing(Math.max(size, 1));
+   }
+
+   /**
+    * Returns the number of buffers in the ring.
+    * @return the size of the ring
+    */
+   public int size() {
+      return buffers.length;
+   }
+
+   /**
+    * Returns the oldest buffer of the ring that
+    * belongs to the specified partition and can be reused,
+    * or null if there is none.
+    * Called while the partition's lock is held.
+    * @param part the partition of the block being pinned
+    * @return the buffer to recycle, or null
+    */
+   synchronized Buffer nextBuffer(BufferPartition part) {
+      for (int i=1; i<=buffers.length; i++) {
+         int slot = (current + i) % buffers.length;
+         Buffer buff = buffers[slot];
+         if (buff != null && part.holds(buff) && !buff.isPinned()) {
+            current = slot;
+            return buff;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Puts the specified buffer into the next slot of the ring,
+    * in place of the oldest buffer.
+    * @param buff a buffer chosen by the replacement policy
+    */
+   synchronized void add(Buffer buff) {
+      current = (current + 1) % buffers.length;
+      buffers[current] = buff;
+   }
+}
@@ -0,0 +1,167 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+/**
+ * A background thread that writes dirty, unpinned buffers
+ * to disk, so that a transaction that needs a buffer
+ * seldom has to write out the previous contents itself.
+ * <P>
+ * Every INTERVAL milliseconds, or sooner if a pin had to
+ * replace a dirty buffer, the writer claims up to BATCH_SIZE
+ * dirty buffers from each partition of the pool.
+ * It flushes the log once, up to the largest LSN of the batch,
+ * and then writes the buffers in file and block order,
+ * so that each run of consecutive blocks becomes
+ * a single gathering write.
+ * Claimed buffers can be neither pinned nor replaced
+ * until the writer releases them.
+ */
+public class BufferWriter implements Runnable {
+   public static long INTERVAL = 100; // milliseconds
+   public static int BATCH_SIZE = 64;
+
+   private static final Comparator<Buffer> BLOCK_ORDER =
+         Comparator.comparing((Buffer b) -> b.block().fileName())
+                   .thenComparingInt(b -> b.block().number());
+
+   private FileMgr fm;
+   private LogMgr lm;
+   private BufferPartition[] partitions;
+   private boolean nudged = false, stopped = false;
+   private Thread thread;
+   private long pagesWritten = 0, writes = 0;
+
+   BufferWriter(FileMgr fm, LogMgr lm) {
+      this.fm = fm;
+      this.lm = lm;
+   }
+
+   /**
+    * Starts writing the dirty buffers of the specified partitions
+    * in a daemon thread.
+    * @param partitions the partitions of the buffer pool
+    */
+   void start(BufferPartition[] partitions) {
+      this.partitions = partitions;
+      thread = new Thread(this, "buffer writer");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Stops the writer after its current round,
+    * and waits for it to finish.
+    */
+   void stop() {
+      synchronized (this) {
+         stopped = true;
+         notify();
+      }
+      try {
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         // give up waiting
+      }
+   }
+
+   /**
+    * Asks the writer to start its next round right away.
+    */
+   synchronized void wakeUp() {
+      nudged = true;
+      notify();
+   }
+
+   /**
+    * Returns the number of pages written by the writer.
+    * @return the number of pages written
+    */
+   synchronized long pagesWritten() {
+      return pagesWritten;
+   }
+
+   /**
+    * Returns the number of write calls made by the writer;
+    * each call writes a run of consecutive blocks.
+    * @return the number of writes
+    */
+   synchronized long writes() {
+      return writes;
+   }
+
+   public void run() {
+      try {
+         while (true) {
+            synchronized (this) {
+               if (!nudged && !stopped)
+                  wait(INTERVAL);
+               if (stopped)
+                  return;
+               nudged = false;
+            }
+            writeDirtyBuffers();
+         }
+      }
+      catch (InterruptedException e) {
+         // the database is shutting down
+      }
+   }
+
+   /**
+    * Writes one batch of dirty buffers from each partition.
+    * @return the number of buffers written
+    */
+   int writeDirtyBuffers() {
+      List<List<Buffer>> claims = new ArrayList<>();
+      List<Buffer> batch = new ArrayList<>();
+      for (BufferPartition part : partitions) {
+         List<Buffer> claimed = part.claimDirty(BATCH_SIZE);
+         claims.add(claimed);
+         batch.addAll(claimed);
+      }
+      try {
+         if (!batch.isEmpty())
+            write(batch);
+      }
+      finally {
+         for (int i=0; i<partitions.length; i++)
+            partitions[i].release(claims.get(i));
+      }
+      return batch.size();
+   }
+
+   private void write(List<Buffer> batch) {
+      int maxlsn = -1;
+      for (Buffer buff : batch)
+         maxlsn = Math.max(maxlsn, buff.lsn());
+      lm.flush(maxlsn);
+
+      batch.sort(BLOCK_ORDER);
+      int start = 0;
+      while (start < batch.size()) {
+         int end = start + 1;
+         while (end < batch.size() && follows(batch.get(end-1), batch.get(end)))
+            end++;
+         Page[] pages = new Page[end - start];
+         for (int i=start; i<end; i++)
+            pages[i-start] = batch.get(i).contents();
+         fm.write(batch.get(start).block(), pages);
+         for (int i=start; i<end; i++)
+            batch.get(i).markClean();
+         synchronized (this) {
+            pagesWritten += pages.length;
+            writes++;
+         }
+         start = end;
+      }
+   }
+
+   private boolean follows(Buffer prev, Buffer next) {
+      return prev.block().fileName().equals(next.block().fileName())
+            && prev.block().number() + 1 == next.block().number();
+   }
+}
@@ -0,0 +1,38 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class BufferWriterTest {
+   private static final int POOL_SIZE = 200;
+   private static final int NUM_BLOCKS = 2000;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("bufferwritertest", 400, POOL_SIZE);
+      BufferMgr bm = db.bufferMgr();
+      FileMgr fm = db.fileMgr();
+      for (int i=0; i<NUM_BLOCKS; i++)
+         fm.append("testfile");
+
+      // each transaction modifies a few blocks and then thinks
+      // for a while, giving the writer time to clean the pool
+      long start = System.currentTimeMillis();
+      for (int i=0; i<NUM_BLOCKS; i++) {
+         Buffer buff = bm.pin(new BlockId("testfile", i));
+         buff.contents().setInt(0, i);
+         buff.setModified(1, -1);
+         bm.unpin(buff);
+         if (i % 20 == 19)
+            Thread.sleep(5);
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      System.out.println("pins that wrote a dirty buffer: " + bm.dirtyReplacements());
+      System.out.println("pages written in the background: " + bm.backgroundWrites());
+      System.out.println("elapsed ms: " + elapsed);
+
+      Buffer buff = bm.pin(new BlockId("testfile", 0));
+      System.out.println("block 0 contains " + buff.contents().getInt(0)
+            + " (should be 0)");
+      bm.unpin(buff);
+   }
+}
@@ -0,0 +1,66 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The clock (second-chance) algorithm.
+ * Each buffer has a reference bit that is set when it is unpinned.
+ * The clock hand sweeps the pool; a buffer whose bit is set
+ * gets its bit cleared and is passed over,
+ * and the first unpinned buffer whose bit is clear is replaced.
+ * A removed buffer's frame is taken over by the last frame,
+ * so that removal does not have to search or shift the frames.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+   private List<Buffer> frames = new ArrayList<>();
+   private Map<Buffer,Integer> slots = new HashMap<>();
+   private Map<Buffer,Boolean> referenced = new HashMap<>();
+   private int hand = 0;
+
+   public void pinned(Buffer buff) {
+      // the reference is recorded when the buffer is unpinned
+   }
+
+   public void unpinned(Buffer buff) {
+      if (referenced.put(buff, true) == null) {
+         slots.put(buff, frames.size());
+         frames.add(buff);
+      }
+   }
+
+   public void removed(Buffer buff) {
+      Integer i = slots.remove(buff);
+      if (i == null)
+         return;
+      referenced.remove(buff);
+      int last = frames.size() - 1;
+      Buffer moved = frames.remove(last);
+      if (i < last) {
+         frames.set(i, moved);
+         slots.put(moved, i);
+         // the moved buffer is still due next if the hand was on it
+         if (hand == last)
+            hand = i;
+      }
+      if (hand >= frames.size())
+         hand = 0;
+   }
+
+   /**
+    * Sweeps at most twice around the pool:
+    * the first pass may only clear reference bits.
+    */
+   public Buffer chooseUnpinnedBuffer() {
+      for (int i=0; i<2*frames.size(); i++) {
+         Buffer buff = frames.get(hand);
+         hand = (hand + 1) % frames.size();
+         if (buff.isPinned())
+            continue;
+         if (referenced.get(buff))
+            referenced.put(buff, false);
+         else
+            return buff;
+      }
+      return null;
+   }
+}
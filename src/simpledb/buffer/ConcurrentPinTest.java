@@ -0,0 +1,56 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+
+public class ConcurrentPinTest {
+   private static final int POOL_SIZE = 4096;
+   private static final int NUM_BLOCKS = 2048;
+   private static final int HOT_BLOCKS = 64;
+   private static final int PINS_PER_THREAD = 200000;
+
+   public static void main(String[] args) throws InterruptedException {
+      int[] threadcounts = {1, 2, 4, 8, 16, 32};
+      int[] partitioncounts = {1, BufferMgr.DEFAULT_PARTITIONS};
+      for (int numparts : partitioncounts) {
+         SimpleDB.BUFFER_PARTITIONS = numparts;
+         SimpleDB db = new SimpleDB("concurrentpintest", 400, POOL_SIZE);
+         BufferMgr bm = db.bufferMgr();
+         for (int i=0; i<NUM_BLOCKS; i++)
+            bm.unpin(bm.pin(new BlockId("testfile", i)));
+
+         // keep the hot blocks pinned, as a long-running scan would
+         for (int i=0; i<HOT_BLOCKS; i++)
+            bm.pin(new BlockId("testfile", i));
+
+         System.out.println(numparts + " partition(s)");
+         System.out.println("threads\tpins/ms (any block)\tpins/ms (pinned blocks)");
+         for (int numthreads : threadcounts) {
+            long any = run(bm, numthreads, NUM_BLOCKS);
+            long hot = run(bm, numthreads, HOT_BLOCKS);
+            System.out.println(numthreads + "\t" + any + "\t\t\t" + hot);
+         }
+      }
+   }
+
+   private static long run(BufferMgr bm, int numthreads, int numblocks) throws InterruptedException {
+      Thread[] threads = new Thread[numthreads];
+      for (int t=0; t<numthreads; t++) {
+         Random rand = new Random(t);
+         threads[t] = new Thread(() -> {
+            for (int i=0; i<PINS_PER_THREAD; i++) {
+               Buffer buff = bm.pin(new BlockId("testfile", rand.nextInt(numblocks)));
+               bm.unpin(buff);
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      long nanos = System.nanoTime() - start;
+      return (long) numthreads * PINS_PER_THREAD * 1000000L / Math.max(nanos, 1);
+   }
+}
@@ -0,0 +1,56 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The buffers of a partition that each transaction has modified.
+ * A buffer is added when a transaction becomes its modifying
+ * transaction, so flushing a transaction's buffers takes time
+ * proportional to the number of buffers it touched,
+ * not to the size of the pool.
+ * <P>
+ * Entries are not removed when a buffer is written out
+ * or taken over by another transaction;
+ * such stale entries are skipped, and discarded
+ * when the transaction's buffers are flushed.
+ * <P>
+ * The table also remembers the files that each transaction
+ * modified, since some of its buffers may have been written
+ * by someone else, and all of those files must be synced
+ * before the transaction commits.
+ */
+class DirtyTable {
+   private Map<Integer,Set<Buffer>> buffers = new ConcurrentHashMap<>();
+   private Map<Integer,Set<String>> files = new ConcurrentHashMap<>();
+
+   /**
+    * Records that the specified transaction has modified the buffer.
+    * @param txnum the id of the modifying transaction
+    * @param buff the modified buffer
+    */
+   void add(int txnum, Buffer buff) {
+      buffers.computeIfAbsent(txnum, k -> ConcurrentHashMap.newKeySet()).add(buff);
+      files.computeIfAbsent(txnum, k -> ConcurrentHashMap.newKeySet()).add(buff.block().fileName());
+   }
+
+   /**
+    * Removes and returns the buffers that the specified
+    * transaction may have modified.
+    * @param txnum the id of the transaction
+    * @return the transaction's buffers, or null if it has none
+    */
+   Set<Buffer> remove(int txnum) {
+      return buffers.remove(txnum);
+   }
+
+   /**
+    * Removes and returns the files that the specified
+    * transaction modified.
+    * @param txnum the id of the transaction
+    * @return the transaction's files, or null if it has none
+    */
+   Set<String> removeFiles(int txnum) {
+      return files.remove(txnum);
+   }
+}
@@ -0,0 +1,115 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * The LRU-K algorithm.
+ * The policy remembers the times of the last K references
+ * to each block, and replaces the unpinned buffer whose
+ * K-th most recent reference is oldest.
+ * A block with fewer than K references counts as infinitely old,
+ * so a block read once by a scan is replaced
+ * before a block that is used repeatedly, such as a catalog page.
+ * Ties are broken by the most recent reference.
+ * <P>
+ * The reference history outlives the buffer that held the block,
+ * so a block that is evicted and soon read again keeps its history.
+ * The history is bounded to a few entries per buffer.
+ * <P>
+ * The unpinned buffers are kept in order of their K-th and most
+ * recent references, as they were when the buffer was unpinned,
+ * so a miss takes the first of them rather than scanning them all.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+   private static final int HISTORY_PER_BUFFER = 4;
+   private int k;
+   private long clock = 0, nextSeq = 0;
+   private Set<Buffer> frames = new HashSet<>();
+   private Map<Buffer,Candidate> candidates = new HashMap<>();
+   private TreeSet<Candidate> order = new TreeSet<>();
+   private Map<BlockId,long[]> history = new LinkedHashMap<>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<BlockId,long[]> eldest) {
+         return size() > HISTORY_PER_BUFFER * frames.size();
+      }
+   };
+
+   /**
+    * An unpinned buffer, with the times of its block's K-th
+    * and most recent references when it was unpinned.
+    * A buffer that holds no block comes before every other.
+    */
+   private static class Candidate implements Comparable<Candidate> {
+      Buffer buff;
+      long kth, last, seq;
+
+      Candidate(Buffer buff, long kth, long last, long seq) {
+         this.buff = buff;
+         this.kth = kth;
+         this.last = last;
+         this.seq = seq;
+      }
+
+      public int compareTo(Candidate c) {
+         if (kth != c.kth)
+            return Long.compare(kth, c.kth);
+         if (last != c.last)
+            return Long.compare(last, c.last);
+         return Long.compare(seq, c.seq);
+      }
+   }
+
+   public LruKPolicy(int k) {
+      this.k = k;
+   }
+
+   public void pinned(Buffer buff) {
+      forget(buff);
+      long[] refs = history.get(buff.block());
+      if (refs == null) {
+         refs = new long[k];
+         history.put(buff.block(), refs);
+      }
+      for (int i=k-1; i>0; i--)
+         refs[i] = refs[i-1];
+      refs[0] = ++clock;
+   }
+
+   public void unpinned(Buffer buff) {
+      frames.add(buff);
+      forget(buff);
+      Candidate c;
+      if (buff.block() == null)
+         c = new Candidate(buff, -1, -1, nextSeq++);
+      else {
+         long[] refs = history.get(buff.block());
+         long kth  = (refs == null) ? 0 : refs[k-1];
+         long last = (refs == null) ? 0 : refs[0];
+         c = new Candidate(buff, kth, last, nextSeq++);
+      }
+      candidates.put(buff, c);
+      order.add(c);
+   }
+
+   public void removed(Buffer buff) {
+      frames.remove(buff);
+      forget(buff);
+   }
+
+   /**
+    * Returns the first unpinned buffer in order
+    * of the oldest K-th reference.
+    */
+   public Buffer chooseUnpinnedBuffer() {
+      for (Candidate c : order)
+         if (!c.buff.isPinned())  // else claimed for I/O
+            return c.buff;
+      return null;
+   }
+
+   private void forget(Buffer buff) {
+      Candidate c = candidates.remove(buff);
+      if (c != null)
+         order.remove(c);
+   }
+}
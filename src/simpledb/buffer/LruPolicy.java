@@ -0,0 +1,35 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * Replaces the buffer that was unpinned least recently.
+ * Unpinned buffers are kept in a linked set in the order
+ * in which they were unpinned, so every operation is constant time.
+ */
+public class LruPolicy implements ReplacementPolicy {
+   private Set<Buffer> unpinnedBuffers = new LinkedHashSet<>();
+
+   public void pinned(Buffer buff) {
+      unpinnedBuffers.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinnedBuffers.add(buff);
+   }
+
+   public void removed(Buffer buff) {
+      unpinnedBuffers.remove(buff);
+   }
+
+   /**
+    * Returns the least recently unpinned buffer,
+    * skipping any that are claimed for I/O.
+    */
+   public Buffer chooseUnpinnedBuffer() {
+      for (Buffer buff : unpinnedBuffers)
+         if (!buff.isPinned())
+            return buff;
+      return null;
+   }
+}
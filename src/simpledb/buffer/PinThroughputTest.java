@@ -0,0 +1,44 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+
+public class PinThroughputTest {
+   private static final int HIT_PINS  = 1000000;
+   private static final int MISS_PINS = 100000;
+
+   public static void main(String[] args) {
+      int[] poolsizes = {10, 100, 1000, 10000, 50000};
+      System.out.println("pool size\thits/ms\tmisses/ms");
+      for (int numbuffs : poolsizes) {
+         SimpleDB db = new SimpleDB("pinthroughputtest", 400, numbuffs);
+         BufferMgr bm = db.bufferMgr();
+         Random rand = new Random(1);
+
+         // every block of the working set fits in the pool
+         for (int i=0; i<numbuffs; i++)
+            bm.unpin(bm.pin(new BlockId("testfile", i)));
+         long hitTime = time(bm, rand, numbuffs, HIT_PINS);
+
+         // the working set is twice the size of the pool
+         long missTime = time(bm, rand, 2*numbuffs, MISS_PINS);
+
+         System.out.println(numbuffs + "\t\t" + rate(HIT_PINS, hitTime)
+               + "\t" + rate(MISS_PINS, missTime));
+      }
+   }
+
+   private static long time(BufferMgr bm, Random rand, int numblocks, int numpins) {
+      long start = System.nanoTime();
+      for (int i=0; i<numpins; i++) {
+         Buffer buff = bm.pin(new BlockId("testfile", rand.nextInt(numblocks)));
+         bm.unpin(buff);
+      }
+      return System.nanoTime() - start;
+   }
+
+   private static long rate(int numpins, long nanos) {
+      return numpins * 1000000L / Math.max(nanos, 1);
+   }
+}
@@ -0,0 +1,47 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+public class PrefetchTest {
+   private static final int NUM_BLOCKS = 2000;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("prefetchtest", 400, 1000);
+      FileMgr fm = db.fileMgr();
+      BufferMgr bm = db.bufferMgr();
+      if (fm.length("testfile") < NUM_BLOCKS)
+         for (int i=fm.length("testfile"); i<NUM_BLOCKS; i++)
+            fm.append("testfile");
+
+      int[] depths = {0, BufferMgr.PREFETCH_DEPTH};
+      for (int depth : depths) {
+         BufferMgr.PREFETCH_DEPTH = depth;
+         int prefetches = bm.prefetches();
+         int hits = bm.prefetchHits();
+         int wasted = bm.wastedPrefetches();
+
+         // scan a file that is not in the pool, doing
+         // a little work on each block, as a query would
+         Transaction tx = db.newTx();
+         BufferRing ring = BufferRing.forScan(NUM_BLOCKS, bm.poolSize(), 1);
+         long start = System.currentTimeMillis();
+         long sum = 0;
+         for (int i=0; i<NUM_BLOCKS; i++) {
+            BlockId blk = new BlockId("testfile", i);
+            tx.pin(blk, ring);
+            for (int pos=0; pos<400; pos+=4)
+               sum += tx.getInt(blk, pos);
+            tx.unpin(blk);
+         }
+         tx.commit();
+         long elapsed = System.currentTimeMillis() - start;
+         System.out.println("depth " + bm.prefetchDepth(ring) + ": " + elapsed + " ms"
+               + ", prefetched " + (bm.prefetches() - prefetches)
+               + ", hits " + (bm.prefetchHits() - hits)
+               + ", wasted " + (bm.wastedPrefetches() - wasted)
+               + ", checksum " + sum);
+      }
+   }
+}
@@ -0,0 +1,134 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import simpledb.file.*;
+
+/**
+ * A background thread that reads blocks into the buffer pool
+ * before they are pinned.
+ * A transaction that is reading a file sequentially asks the
+ * buffer manager to prefetch the next few blocks;
+ * the requests are queued, and the prefetcher loads each block
+ * into an unpinned buffer, which stays unpinned.
+ * Requests are dropped when the queue is full,
+ * and blocks that are already in the pool, that the
+ * transaction has already pinned itself,
+ * or that lie beyond the end of their file, are skipped.
+ * <P>
+ * Reading a block of a missing file would create the file,
+ * so the requests for a file that is about to be deleted,
+ * such as a temporary table, are cancelled.
+ * A request is served while holding the prefetcher's lock,
+ * so that a cancellation waits for a read in progress,
+ * and requests made before a cancellation are skipped
+ * even if they were already taken from the queue.
+ */
+class Prefetcher implements Runnable {
+   private static final int QUEUE_SIZE = 256;
+   private static final Request STOP = new Request(null, null, null, -1);
+
+   private FileMgr fm;
+   private BufferMgr bm;
+   private BlockingQueue<Request> requests = new ArrayBlockingQueue<>(QUEUE_SIZE);
+   private volatile boolean stopped = false;
+   private Thread thread;
+   private AtomicLong nextSeq = new AtomicLong();
+   // the sequence number at which each file was last cancelled
+   private Map<String,Long> cancelled = new HashMap<>();
+
+   private static class Request {
+      BlockId blk;
+      BufferRing ring;
+      Readahead ra;
+      long seq;
+
+      Request(BlockId blk, BufferRing ring, Readahead ra, long seq) {
+         this.blk = blk;
+         this.ring = ring;
+         this.ra = ra;
+         this.seq = seq;
+      }
+   }
+
+   Prefetcher(FileMgr fm, BufferMgr bm) {
+      this.fm = fm;
+      this.bm = bm;
+   }
+
+   /**
+    * Starts serving prefetch requests in a daemon thread.
+    */
+   void start() {
+      thread = new Thread(this, "prefetcher");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Discards the pending requests, stops the prefetcher
+    * after its current read, and waits for it to finish.
+    * The thread is not interrupted, since an interrupted
+    * read would close the file's channel.
+    */
+   void stop() {
+      stopped = true;
+      requests.clear();
+      requests.offer(STOP);
+      try {
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         // give up waiting
+      }
+   }
+
+   /**
+    * Asks the prefetcher to load the specified block.
+    * @param blk a reference to a disk block
+    * @param ring the ring of the scan that will read the block, or null
+    * @param ra the sequence that the block belongs to
+    */
+   void request(BlockId blk, BufferRing ring, Readahead ra) {
+      if (!stopped)
+         requests.offer(new Request(blk, ring, ra, nextSeq.getAndIncrement()));
+   }
+
+   /**
+    * Cancels the requests for the blocks of the specified file,
+    * and waits for a read of one of its blocks to finish.
+    * Called before the file is deleted.
+    * @param filename the name of the file
+    */
+   void cancel(String filename) {
+      requests.removeIf(r -> r != STOP && r.blk.fileName().equals(filename));
+      synchronized (this) {
+         cancelled.put(filename, nextSeq.get());
+      }
+   }
+
+   public void run() {
+      try {
+         while (!stopped) {
+            Request r = requests.take();
+            if (r != STOP)
+               serve(r);
+         }
+      }
+      catch (InterruptedException e) {
+         // the database is shutting down
+      }
+   }
+
+   private synchronized void serve(Request r) {
+      // the queue is in order, so no request made
+      // before the older cancellations is left
+      cancelled.values().removeIf(seq -> seq <= r.seq);
+      String filename = r.blk.fileName();
+      if (cancelled.containsKey(filename) || r.ra.passed(r.blk.number())
+            || !fm.exists(filename) || r.blk.number() >= fm.length(filename))
+         return;
+      bm.load(r.blk, r.ring);
+   }
+}
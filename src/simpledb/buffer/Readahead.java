@@ -0,0 +1,67 @@
+package simpledb.buffer;
+
+import simpledb.file.BlockId;
+
+/**
+ * The sequential read state of one file for one transaction.
+ * Each time the transaction pins the block that follows
+ * the previous one, the blocks up to the prefetch depth
+ * beyond it that have not already been requested
+ * are passed to the prefetcher.
+ * The prefetcher skips a request once the transaction
+ * has pinned the block, or a later one, itself.
+ */
+public class Readahead {
+   private BufferMgr bm;
+   private String filename;
+   private volatile int lastblk;
+   private int nextblk;
+
+   /**
+    * Starts a sequence at the specified block.
+    * @param bm the buffer manager
+    * @param blk the first block of the sequence
+    */
+   public Readahead(BufferMgr bm, BlockId blk) {
+      this.bm = bm;
+      this.filename = blk.fileName();
+      this.lastblk = blk.number();
+      this.nextblk = lastblk + 1;
+   }
+
+   /**
+    * Returns true if the specified block continues the sequence,
+    * that is, if it is the last block pinned or the one after it.
+    * @param blk a reference to a disk block
+    */
+   public boolean continues(BlockId blk) {
+      int blknum = blk.number();
+      return blknum == lastblk || blknum == lastblk + 1;
+   }
+
+   /**
+    * Records that the transaction pinned the specified block,
+    * which continues the sequence, and prefetches ahead of it.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring of buffers, or null
+    */
+   public void pinned(BlockId blk, BufferRing ring) {
+      int blknum = blk.number();
+      if (blknum == lastblk)
+         return;
+      lastblk = blknum;
+      int limit = blknum + bm.prefetchDepth(ring);
+      for (int b=Math.max(nextblk, blknum+1); b<=limit; b++)
+         bm.prefetch(new BlockId(filename, b), ring, this);
+      nextblk = Math.max(nextblk, limit + 1);
+   }
+
+   /**
+    * Returns true if the transaction has already pinned
+    * the specified block of the sequence, or a later one.
+    * @param blknum a block number
+    */
+   boolean passed(int blknum) {
+      return blknum <= lastblk;
+   }
+}
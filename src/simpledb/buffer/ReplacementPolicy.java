@@ -0,0 +1,75 @@
+package simpledb.buffer;
+
+/**
+ * The strategy that the buffer manager uses to choose
+ * which unpinned buffer to replace on a miss.
+ * The buffer manager tells the policy whenever
+ * a buffer's pin count rises from zero (a reference)
+ * or falls back to zero (the buffer becomes a candidate
+ * for replacement); the policy keeps whatever history
+ * it needs from those calls.
+ * Each partition of the buffer pool has its own policy object,
+ * whose methods are only called while the partition's lock is held,
+ * so implementations need not be thread-safe.
+ */
+public interface ReplacementPolicy {
+   public enum PolicyType {
+      LRU,
+      CLOCK,
+      LRU_K,
+      TWO_Q
+   }
+
+   public static ReplacementPolicy getPolicy(PolicyType type) {
+      switch (type) {
+         case CLOCK: {
+            return new ClockPolicy();
+         }
+         case LRU_K: {
+            return new LruKPolicy(2);
+         }
+         case TWO_Q: {
+            return new TwoQPolicy();
+         }
+      }
+      return new LruPolicy();
+   }
+
+   /**
+    * Called when the pin count of the buffer rises from zero.
+    * If the buffer has just been assigned to a new block,
+    * then {@link Buffer#block()} already returns the new block.
+    * A buffer that was pinned again while already pinned is
+    * reported once more when its pin count falls to zero,
+    * just before {@link #unpinned(Buffer)}, since those pins
+    * are mostly made without the partition's lock.
+    * @param buff the buffer being pinned
+    */
+   void pinned(Buffer buff);
+
+   /**
+    * Called when the pin count of the buffer falls to zero,
+    * and once for each buffer when the pool is created.
+    * @param buff the buffer that became unpinned
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Called when the buffer is removed from the pool,
+    * because the pool is shrinking.
+    * The policy must forget the buffer.
+    * @param buff the buffer being removed
+    */
+   void removed(Buffer buff);
+
+   /**
+    * Returns the unpinned buffer that should be replaced next,
+    * or null if every buffer is pinned.
+    * Buffers that are claimed for I/O count as pinned,
+    * and must be skipped.
+    * The buffer stays a candidate until
+    * {@link #pinned(Buffer)} is called for it.
+    * @return the buffer to replace
+    */
+   Buffer chooseUnpinnedBuffer();
+}
@@ -0,0 +1,30 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+import simpledb.buffer.ReplacementPolicy.PolicyType;
+import simpledb.file.BlockId;
+
+public class ReplacementPolicyTest {
+   private static final int POOL_SIZE = 50;
+   private static final int HOT_BLOCKS = 30;
+   private static final int SCAN_BLOCKS = 5000;
+
+   public static void main(String[] args) {
+      System.out.println("policy\thit ratio");
+      for (PolicyType type : PolicyType.values()) {
+         SimpleDB db = new SimpleDB("replacementpolicytest", 400, POOL_SIZE, type);
+         BufferMgr bm = db.bufferMgr();
+         Random rand = new Random(1);
+
+         // a large sequential scan, interleaved with
+         // lookups of a small set of hot blocks (think catalog pages)
+         for (int i=0; i<SCAN_BLOCKS; i++) {
+            bm.unpin(bm.pin(new BlockId("scanfile", i)));
+            for (int j=0; j<2; j++)
+               bm.unpin(bm.pin(new BlockId("hotfile", rand.nextInt(HOT_BLOCKS))));
+         }
+         System.out.println(type + "\t" + String.format("%.3f", bm.hitRatio()));
+      }
+   }
+}
@@ -0,0 +1,36 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+import simpledb.tx.Transaction;
+
+public class ReservationTest {
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("reservationtest", 400, 8);
+      BufferMgr bm = db.bufferMgr();
+      Transaction tx1 = db.newTx();
+      Transaction tx2 = db.newTx();
+
+      int granted1 = tx1.reserveBuffers(5);
+      int granted2 = tx2.reserveBuffers(5);
+      System.out.println("tx1 was granted " + granted1 + " buffers, tx2 " + granted2);
+      System.out.println("Available to others: " + bm.available());
+
+      // each transaction pins its blocks with its own buffers;
+      // tx2 cannot take the buffers that belong to tx1
+      for (int i=0; i<granted2; i++)
+         tx2.pin(new BlockId("testfile", i));
+      System.out.println("tx2 pinned its " + granted2 + " blocks");
+      for (int i=0; i<granted1; i++)
+         tx1.pin(new BlockId("testfile", 10+i));
+      System.out.println("tx1 pinned its " + granted1 + " blocks without waiting");
+
+      // unpinned blocks go back to the reservation
+      tx1.unpin(new BlockId("testfile", 10));
+      System.out.println("Available to others after tx1 unpins one: " + bm.available());
+      tx1.commit();
+      System.out.println("Available after tx1 commits: " + bm.available());
+      tx2.commit();
+      System.out.println("Available after tx2 commits: " + bm.available());
+   }
+}
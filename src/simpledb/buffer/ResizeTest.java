@@ -0,0 +1,42 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class ResizeTest {
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("resizetest", 400, 3);
+      BufferMgr bm = db.bufferMgr();
+      Buffer[] buff = new Buffer[6];
+      buff[0] = bm.pin(new BlockId("testfile", 0));
+      buff[1] = bm.pin(new BlockId("testfile", 1));
+      buff[2] = bm.pin(new BlockId("testfile", 2));
+      System.out.println("Pool size: " + bm.poolSize() + ", available: " + bm.available());
+
+      // this pin has to wait until the pool grows
+      Thread t = new Thread(() -> {
+         buff[3] = bm.pin(new BlockId("testfile", 3));
+         System.out.println("Got buffer for block 3");
+      });
+      t.start();
+      Thread.sleep(500);
+      System.out.println("Growing the pool to 5");
+      db.resizeBufferPool(5);
+      t.join();
+      System.out.println("Pool size: " + bm.poolSize() + ", available: " + bm.available());
+
+      // blocks 2 and 3 stay pinned, so shrinking to 1 removes
+      // the three unpinned buffers at once, and one more
+      // as soon as it is unpinned
+      bm.unpin(buff[0]);
+      bm.unpin(buff[1]);
+      System.out.println("Shrinking the pool to 1");
+      db.resizeBufferPool(1);
+      System.out.println("Pool size: " + bm.poolSize() + ", available: " + bm.available());
+      bm.unpin(buff[2]);
+      bm.unpin(buff[3]);
+      System.out.println("Pool size: " + bm.poolSize() + ", available: " + bm.available());
+      buff[4] = bm.pin(new BlockId("testfile", 4));
+      System.out.println("Got buffer for block 4");
+   }
+}
@@ -0,0 +1,99 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * The full 2Q algorithm of Johnson and Shasha.
+ * A block read for the first time enters the FIFO queue A1in.
+ * When it is replaced from A1in, its id is remembered
+ * in the ghost queue A1out.
+ * A block that is read again while its id is in A1out
+ * is considered hot, and enters the LRU queue Am.
+ * Buffers are replaced from A1in while it is larger than
+ * its share of the pool, and otherwise from Am.
+ * A single large scan therefore only cycles through A1in,
+ * and leaves the hot blocks in Am alone.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+   private static final double IN_FRACTION = 0.25, OUT_FRACTION = 0.5;
+   private Set<Buffer> frames = new HashSet<>();
+   private Set<Buffer> free = new LinkedHashSet<>();
+   private Set<Buffer> a1in = new LinkedHashSet<>();
+   private Set<Buffer> am   = new LinkedHashSet<>();
+   private Set<BlockId> a1out = new LinkedHashSet<>();
+   private Map<Buffer,BlockId> residents = new HashMap<>();
+
+   /**
+    * Records a reference to the buffer's block.
+    * If the buffer now holds a different block than before,
+    * the previous block was replaced and the new one is admitted.
+    */
+   public void pinned(Buffer buff) {
+      BlockId blk = buff.block();
+      BlockId previous = residents.put(buff, blk);
+      if (previous != null && previous.equals(blk)) {
+         if (am.remove(buff))
+            am.add(buff);  // move to the most recently used end
+         return;
+      }
+      free.remove(buff);
+      if (a1in.remove(buff))
+         remember(previous);
+      am.remove(buff);
+      if (a1out.remove(blk))
+         am.add(buff);
+      else
+         a1in.add(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      if (frames.add(buff))
+         free.add(buff);
+   }
+
+   /**
+    * Forgets the buffer; its block, if any,
+    * is remembered in A1out like any other replaced block.
+    */
+   public void removed(Buffer buff) {
+      frames.remove(buff);
+      free.remove(buff);
+      am.remove(buff);
+      BlockId blk = residents.remove(buff);
+      if (a1in.remove(buff) && blk != null)
+         remember(blk);
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      Buffer buff = firstUnpinned(free);
+      if (buff != null)
+         return buff;
+      if (a1in.size() > IN_FRACTION * frames.size()) {
+         buff = firstUnpinned(a1in);
+         if (buff != null)
+            return buff;
+      }
+      buff = firstUnpinned(am);
+      if (buff != null)
+         return buff;
+      return firstUnpinned(a1in);
+   }
+
+   private Buffer firstUnpinned(Set<Buffer> queue) {
+      for (Buffer buff : queue)
+         if (!buff.isPinned())
+            return buff;
+      return null;
+   }
+
+   private void remember(BlockId blk) {
+      a1out.add(blk);
+      int limit = (int) Math.max(1, OUT_FRACTION * frames.size());
+      Iterator<BlockId> iter = a1out.iterator();
+      while (a1out.size() > limit) {
+         iter.next();
+         iter.remove();
+      }
+   }
+}
@@ -0,0 +1,68 @@
+package simpledb.buffer;
+
+import java.io.*;
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * The list of blocks that were resident in the buffer pool,
+ * saved so that a restarted database can read them back
+ * before they are asked for.
+ * The list is saved in its own file in the database directory;
+ * a missing or damaged file reads as an empty list.
+ */
+class WarmList {
+   private File file;
+
+   WarmList(File file) {
+      this.file = file;
+   }
+
+   /**
+    * Writes the specified blocks to the file,
+    * replacing its previous contents.
+    * The list is written to a temporary file first,
+    * so a crash never leaves a half-written list behind.
+    * @param blocks the resident blocks
+    */
+   void save(Collection<BlockId> blocks) {
+      File tmp = new File(file.getPath() + ".new");
+      try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)))) {
+         out.writeInt(blocks.size());
+         for (BlockId blk : blocks) {
+            out.writeUTF(blk.fileName());
+            out.writeInt(blk.number());
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot save " + file);
+      }
+      file.delete();
+      tmp.renameTo(file);
+   }
+
+   /**
+    * Reads the list from the file, sorted by file and block number.
+    * @return the saved blocks
+    */
+   List<BlockId> load() {
+      List<BlockId> blocks = new ArrayList<>();
+      if (!file.exists())
+         return blocks;
+      try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+         int n = in.readInt();
+         for (int i=0; i<n; i++) {
+            String filename = in.readUTF();
+            blocks.add(new BlockId(filename, in.readInt()));
+         }
+      }
+      catch (IOException e) {
+         // use as much of the list as could be read
+      }
+      blocks.sort(Comparator.comparing(BlockId::fileName)
+                            .thenComparingInt(BlockId::number));
+      return blocks;
+   }
+}
@@ -0,0 +1,32 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+public class WarmUpTest {
+   private static final int POOL_SIZE = 500;
+   private static final int HOT_BLOCKS = 400;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("warmuptest", 400, POOL_SIZE);
+      db.warmUp();
+      FileMgr fm = db.fileMgr();
+      for (int i=fm.length("testfile"); i<HOT_BLOCKS; i++)
+         fm.append("testfile");
+      BufferMgr bm = db.bufferMgr();
+      for (int i=0; i<HOT_BLOCKS; i++)
+         bm.unpin(bm.pin(new BlockId("testfile", i)));
+      db.shutdown();
+
+      // restart, and give the warm-up a moment before the traffic begins
+      db = new SimpleDB("warmuptest", 400, POOL_SIZE);
+      db.warmUp();
+      bm = db.bufferMgr();
+      Thread.sleep(200);
+      for (int i=0; i<HOT_BLOCKS; i++)
+         bm.unpin(bm.pin(new BlockId("testfile", i)));
+      System.out.println("hit ratio after restart: " + bm.hitRatio()
+            + " (warmed blocks: " + bm.prefetches() + ")");
+      db.shutdown();
+   }
+}
@@ -0,0 +1,46 @@
+package simpledb.file;
+
+import java.util.Random;
+import simpledb.server.SimpleDB;
+
+public class ConcurrentReadTest {
+   private static final int NUM_BLOCKS = 5000;
+   private static final int READS_PER_THREAD = 20000;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("concurrentreadtest", 4096, 8);
+      FileMgr fm = db.fileMgr();
+      fm.setStorageMode("mappedfile", FileMgr.StorageMode.MAPPED);
+      for (int i=fm.length("testfile"); i<NUM_BLOCKS; i++)
+         fm.append("testfile");
+      for (int i=fm.length("mappedfile"); i<NUM_BLOCKS; i++)
+         fm.append("mappedfile");
+
+      System.out.println("threads\treads/ms (standard)\treads/ms (mapped)");
+      int[] threadcounts = {1, 2, 4, 8, 16};
+      for (int numthreads : threadcounts) {
+         long standard = run(fm, "testfile", numthreads);
+         long mapped = run(fm, "mappedfile", numthreads);
+         System.out.println(numthreads + "\t" + standard + "\t\t\t" + mapped);
+      }
+   }
+
+   private static long run(FileMgr fm, String filename, int numthreads) throws InterruptedException {
+      Thread[] threads = new Thread[numthreads];
+      for (int t=0; t<numthreads; t++) {
+         Random rand = new Random(t);
+         threads[t] = new Thread(() -> {
+            Page p = new Page(fm.blockSize());
+            for (int i=0; i<READS_PER_THREAD; i++)
+               fm.read(new BlockId(filename, rand.nextInt(NUM_BLOCKS)), p);
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      long nanos = System.nanoTime() - start;
+      return (long) numthreads * READS_PER_THREAD * 1000000L / Math.max(nanos, 1);
+   }
+}
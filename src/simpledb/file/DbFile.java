@@ -0,0 +1,421 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.file.OpenOption;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An open database file.
+ * Blocks are read and written with positional I/O on the
+ * file's channel, which neither uses nor changes the channel's
+ * position, so any number of threads can read and write
+ * blocks of the same file at once.
+ * Only the operations that depend on the size of the file,
+ * or on the channel's position, are synchronized.
+ * <P>
+ * Writes are not forced to disk as they happen;
+ * {@link #sync()} forces all of the writes made since the last one.
+ * <P>
+ * The file grows an extent of zeroed blocks at a time, and
+ * appends hand out the blocks of the current extent without
+ * touching the disk.
+ * An extent is as long as the file, up to
+ * {@link FileMgr#EXTENT_SIZE} blocks, so that small files
+ * such as hash buckets and temporary tables stay small.
+ * The logical length of the file, which is the number of blocks
+ * handed out, is kept in memory.
+ * Closing the file cuts off the unused blocks, so the length
+ * of a file that was closed is its size.
+ * While the file has an extent, a small length file next to it
+ * holds the logical length as it was when the extent was written.
+ * It is written only with each extent, never by a sync, and
+ * closing the file removes it.
+ * A file that still has a length file was not closed, and its
+ * logical length is recovered from the extent: it is the saved
+ * length, plus the blocks of the extent up to the last one that
+ * is not all zeros.
+ * Blocks after that either were never handed out, or never held
+ * data, and handing them out again is harmless either way.
+ * <P>
+ * The file's channel is opened when it is first used, and may
+ * be closed by the {@link HandleCache} when it has not been
+ * used for a while, to keep the number of open files bounded;
+ * the state of the file stays in memory in the meantime.
+ * Each operation holds the channel while it uses it, and
+ * a channel that is held is never closed.
+ */
+class DbFile {
+   private static final int CLOSED = -1, CLOSING = -2;
+   private File file;
+   private HandleCache cache;
+   private FileChannel channel = null;
+   private AtomicInteger users = new AtomicInteger(CLOSED);
+   private volatile boolean referenced = false;
+   protected int blocksize;
+   private volatile boolean unsynced = false;
+   private AtomicInteger length = new AtomicInteger();
+   private int allocated;
+   private File lengthFile;
+   private boolean hasLengthFile;
+
+   DbFile(File file, int blocksize, HandleCache cache) throws IOException {
+      this.file = file;
+      this.blocksize = blocksize;
+      this.cache = cache;
+      lengthFile = lengthFile(file);
+      FileChannel ch = acquire();
+      try {
+         allocated = (int) (ch.size() / blocksize);
+         hasLengthFile = lengthFile.exists();
+         if (hasLengthFile)
+            length.set(usedBlocks(ch, readLength(), allocated));
+         else
+            length.set(allocated);
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Returns the file in which the logical length
+    * of the specified file is kept.
+    */
+   static File lengthFile(File file) {
+      return new File(file.getPath() + ".len");
+   }
+
+   /**
+    * Reads the specified block into the buffer.
+    * A block beyond the end of the file leaves the buffer unchanged.
+    */
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      FileChannel ch = acquire();
+      try {
+         long pos = (long) blknum * blocksize;
+         while (bb.hasRemaining()) {
+            int n = ch.read(bb, pos);
+            if (n < 0)
+               break;
+            pos += n;
+         }
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Reads consecutive blocks, starting at the specified
+    * block, into the buffers with one scattering read.
+    * A scattering read uses the channel's position,
+    * so it takes turns with the gathering writes.
+    * Blocks beyond the end of the file leave their buffers unchanged.
+    */
+   synchronized void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      FileChannel ch = acquire();
+      try {
+         long remaining = 0;
+         for (ByteBuffer bb : bbs)
+            remaining += bb.remaining();
+         ch.position((long) blknum * blocksize);
+         while (remaining > 0) {
+            long n = ch.read(bbs);
+            if (n < 0)
+               break;
+            remaining -= n;
+         }
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Writes the buffer to the specified block.
+    */
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      FileChannel ch = acquire();
+      try {
+         long pos = (long) blknum * blocksize;
+         while (bb.hasRemaining())
+            pos += ch.write(bb, pos);
+         changed(blknum + 1);
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Writes the buffers to consecutive blocks, starting
+    * at the specified block, with one gathering write.
+    * A gathering write uses the channel's position,
+    * so gathering writes to the same file take turns.
+    */
+   synchronized void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      FileChannel ch = acquire();
+      try {
+         long remaining = 0;
+         for (ByteBuffer bb : bbs)
+            remaining += bb.remaining();
+         ch.position((long) blknum * blocksize);
+         while (remaining > 0)
+            remaining -= ch.write(bbs);
+         changed(blknum + bbs.length);
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Appends a block of zeros to the file.
+    * The block comes from the current extent;
+    * a new extent is written only when that one is used up.
+    * @return the number of the new block
+    */
+   synchronized int append() throws IOException {
+      int blknum = length.get();
+      if (blknum >= allocated) {
+         FileChannel ch = acquire();
+         try {
+            allocated = (int) (ch.size() / blocksize);
+            if (blknum >= allocated)
+               allocateExtent(ch, blknum);
+         }
+         finally {
+            release();
+         }
+      }
+      length.accumulateAndGet(blknum + 1, Math::max);
+      return blknum;
+   }
+
+   /**
+    * Returns the logical number of blocks in the file.
+    */
+   int length() {
+      return length.get();
+   }
+
+   /**
+    * Forces the writes made to the file since the last sync
+    * to disk.
+    * A write that happens while the sync is in progress
+    * leaves the file unsynced, for the next sync to force.
+    */
+   void sync() throws IOException {
+      if (unsynced) {
+         FileChannel ch = acquire();
+         try {
+            unsynced = false;
+            ch.force(true);
+         }
+         finally {
+            release();
+         }
+      }
+   }
+
+   /**
+    * Records that the file has been written since the last sync,
+    * up to the specified block.
+    * A write beyond the logical end of the file, which recovery
+    * may do, moves the end so that the block is not handed out again.
+    * @param end the number of the block after the last one written
+    */
+   protected void changed(int end) {
+      unsynced = true;
+      length.accumulateAndGet(end, Math::max);
+   }
+
+   /**
+    * Closes the file for good, first cutting off the unused
+    * blocks of its last extent.
+    * Every block that was handed out is kept, written or not.
+    * The length file is removed only once the file has
+    * been cut to its logical length on disk.
+    */
+   synchronized void close() throws IOException {
+      if (hasLengthFile) {
+         FileChannel ch = acquire();
+         try {
+            ch.truncate((long) length.get() * blocksize);
+            ch.force(true);
+            allocated = length.get();
+         }
+         finally {
+            release();
+         }
+         Files.deleteIfExists(lengthFile.toPath());
+         hasLengthFile = false;
+      }
+      cache.close(this);
+   }
+
+   /**
+    * Holds the file's channel for an operation,
+    * opening the channel if it is closed.
+    * Each call must be matched by a call to {@link #release()}.
+    * @return the open channel
+    */
+   protected FileChannel acquire() throws IOException {
+      if (!referenced)
+         referenced = true;
+      while (true) {
+         int n = users.get();
+         if (n < 0)
+            cache.open(this);
+         else if (users.compareAndSet(n, n+1))
+            return channel;
+      }
+   }
+
+   /**
+    * Ends an operation's hold on the channel.
+    */
+   protected void release() {
+      users.decrementAndGet();
+   }
+
+   /**
+    * Opens the file's channel, unless it is already open.
+    * Called by the handle cache, while holding its lock.
+    */
+   void openChannel() throws IOException {
+      if (users.get() == CLOSED) {
+         channel = FileChannel.open(file.toPath(), openOptions());
+         users.set(0);
+      }
+   }
+
+   /**
+    * Returns the options with which the file's channel is opened.
+    */
+   protected OpenOption[] openOptions() {
+      return new OpenOption[] {READ, WRITE, CREATE};
+   }
+
+   /**
+    * Starts closing the file's channel if no operation holds it.
+    * From then on, an operation that needs the channel waits
+    * in the handle cache until {@link #finishClose()} is done.
+    * Called by the handle cache, while holding its lock.
+    * @return true if the channel is now closing
+    */
+   boolean beginClose() {
+      return users.compareAndSet(0, CLOSING);
+   }
+
+   /**
+    * Closes the channel of a file that is closing,
+    * first forcing any unsynced writes to disk,
+    * since a sync after the close would not see them.
+    * Called by the handle cache without holding its lock,
+    * so that the force does not hold up other files.
+    */
+   void finishClose() throws IOException {
+      try {
+         if (unsynced) {
+            unsynced = false;
+            channel.force(true);
+         }
+      }
+      finally {
+         try {
+            channel.close();
+         }
+         finally {
+            channel = null;
+            users.set(CLOSED);
+         }
+      }
+   }
+
+   /**
+    * Returns true if the file's channel is open.
+    */
+   boolean isOpen() {
+      return users.get() >= 0;
+   }
+
+   /**
+    * Returns true if the file's channel is being closed.
+    */
+   boolean isClosing() {
+      return users.get() == CLOSING;
+   }
+
+   /**
+    * Returns true if the file has been used since the last call,
+    * and clears the indication.
+    */
+   boolean wasReferenced() {
+      boolean r = referenced;
+      if (r)
+         referenced = false;
+      return r;
+   }
+
+   /**
+    * Writes an extent of zeroed blocks at the end of the file.
+    * The logical length is saved first, so that after a crash
+    * only the blocks of the extent need to be examined.
+    */
+   private void allocateExtent(FileChannel ch, int blknum) throws IOException {
+      int n = Math.max(1, Math.min(FileMgr.EXTENT_SIZE, blknum));
+      if (n > 1 || hasLengthFile)
+         writeLength(length.get());
+      ByteBuffer zeros = ByteBuffer.allocate(n * blocksize);
+      long pos = (long) blknum * blocksize;
+      while (zeros.hasRemaining())
+         pos += ch.write(zeros, pos);
+      allocated = blknum + n;
+      unsynced = true;
+   }
+
+   private void writeLength(int n) throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES).putInt(0, n);
+      try (FileChannel ch = FileChannel.open(lengthFile.toPath(), WRITE, CREATE)) {
+         while (bb.hasRemaining())
+            ch.write(bb, bb.position());
+         ch.force(true);
+      }
+      hasLengthFile = true;
+   }
+
+   private int readLength() throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES);
+      try (FileChannel ch = FileChannel.open(lengthFile.toPath(), READ)) {
+         while (bb.hasRemaining() && ch.read(bb, bb.position()) >= 0);
+      }
+      return bb.hasRemaining() ? 0 : Math.min(bb.getInt(0), allocated);
+   }
+
+   /**
+    * Returns the number of blocks up to and including the last
+    * block that is not all zeros, looking only at the blocks
+    * from the specified one to the end of the file.
+    */
+   private int usedBlocks(FileChannel ch, int from, int blocks) throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(blocksize);
+      while (blocks > from) {
+         bb.clear();
+         long pos = (long) (blocks - 1) * blocksize;
+         while (bb.hasRemaining()) {
+            if (ch.read(bb, pos + bb.position()) < 0)
+               break;
+         }
+         for (int i=0; i<bb.position(); i++)
+            if (bb.get(i) != 0)
+               return blocks;
+         blocks--;
+      }
+      return from;
+   }
+}
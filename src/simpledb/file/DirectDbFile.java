@@ -0,0 +1,93 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.OpenOption;
+import com.sun.nio.file.ExtendedOpenOption;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A database file that is read and written with direct I/O,
+ * bypassing the operating system's cache, so that its blocks
+ * are cached only once, in the buffer pool.
+ * <P>
+ * Direct I/O needs memory that is aligned to the file
+ * system's blocks. The pages of the buffer pool come from
+ * the page arena, and are aligned; a page that is not,
+ * such as one created on its own, is read and written
+ * through an aligned page borrowed from the arena.
+ * Pages on the Java heap are aligned by the channel itself.
+ */
+class DirectDbFile extends DbFile {
+   private PageArena arena;
+
+   DirectDbFile(File file, int blocksize, HandleCache cache, PageArena arena) throws IOException {
+      super(file, blocksize, cache);
+      this.arena = arena;
+   }
+
+   protected OpenOption[] openOptions() {
+      return new OpenOption[] {READ, WRITE, CREATE, ExtendedOpenOption.DIRECT};
+   }
+
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      if (aligned(bb)) {
+         super.read(blknum, bb);
+         return;
+      }
+      Page p = arena.allocate();
+      try {
+         ByteBuffer tmp = p.contents();
+         super.read(blknum, tmp);
+         tmp.flip();
+         bb.put(tmp);
+      }
+      finally {
+         arena.free(p);
+      }
+   }
+
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      if (aligned(bb)) {
+         super.write(blknum, bb);
+         return;
+      }
+      Page p = arena.allocate();
+      try {
+         ByteBuffer tmp = p.contents();
+         tmp.put(bb);
+         tmp.flip();
+         super.write(blknum, tmp);
+      }
+      finally {
+         arena.free(p);
+      }
+   }
+
+   void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      if (aligned(bbs))
+         super.read(blknum, bbs);
+      else
+         for (int i=0; i<bbs.length; i++)
+            read(blknum + i, bbs[i]);
+   }
+
+   void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      if (aligned(bbs))
+         super.write(blknum, bbs);
+      else
+         for (int i=0; i<bbs.length; i++)
+            write(blknum + i, bbs[i]);
+   }
+
+   private boolean aligned(ByteBuffer bb) {
+      return !bb.isDirect() || bb.alignmentOffset(bb.position(), PageArena.ALIGNMENT) == 0;
+   }
+
+   private boolean aligned(ByteBuffer[] bbs) {
+      for (ByteBuffer bb : bbs)
+         if (!aligned(bb))
+            return false;
+      return true;
+   }
+}
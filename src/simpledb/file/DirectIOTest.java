@@ -0,0 +1,55 @@
+package simpledb.file;
+
+import java.util.Random;
+import simpledb.buffer.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.FileMgr.StorageMode;
+
+/**
+ * Compares the throughput of random block reads through
+ * the buffer pool, with the files cached by the operating
+ * system and with direct I/O, for several pool sizes.
+ * With direct I/O every miss goes to the disk, so the
+ * difference shows how much the operating system's cache
+ * was doing on the pool's behalf.
+ */
+public class DirectIOTest {
+   private static final int BLOCK_SIZE = 4096;
+   private static final int FILE_BLOCKS = 4000;
+   private static final int PINS = 20000;
+   private static final int[] POOL_SIZES = {100, 500, 2000};
+
+   public static void main(String[] args) {
+      for (StorageMode mode : new StorageMode[] {StorageMode.STANDARD, StorageMode.DIRECT})
+         for (int poolsize : POOL_SIZES)
+            run(mode, poolsize);
+   }
+
+   private static void run(StorageMode mode, int poolsize) {
+      SimpleDB.STORAGE_MODE = mode;
+      SimpleDB db = new SimpleDB("directiotest", BLOCK_SIZE, poolsize);
+      FileMgr fm = db.fileMgr();
+      Page p = new Page(BLOCK_SIZE);
+      for (int i=fm.length("testfile"); i<FILE_BLOCKS; i++) {
+         BlockId blk = fm.append("testfile");
+         p.setInt(0, i);
+         fm.write(blk, p);
+      }
+
+      BufferMgr bm = db.bufferMgr();
+      Random rand = new Random(42);
+      long start = System.nanoTime();
+      for (int i=0; i<PINS; i++) {
+         Buffer buff = bm.pin(new BlockId("testfile", rand.nextInt(FILE_BLOCKS)));
+         if (buff.contents().getInt(0) != buff.block().number())
+            System.out.println("wrong contents in " + buff.block());
+         bm.unpin(buff);
+      }
+      long micros = (System.nanoTime() - start) / 1000;
+      System.out.println(mode + " with " + poolsize + " buffers: "
+            + (PINS * 1000000L / Math.max(1, micros)) + " pins/sec, hit ratio "
+            + String.format("%.2f", bm.hitRatio()));
+      db.shutdown();
+      SimpleDB.STORAGE_MODE = StorageMode.STANDARD;
+   }
+}
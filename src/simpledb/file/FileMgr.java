@@ -3,82 +3,372 @@ package simpledb.file;
 import simpledb.tx.concurrency.LockAbortException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FileMgr {
+   /**
+    * How the blocks of a file are read and written:
+    * with positional I/O on the file's channel,
+    * through memory mappings of the file,
+    * or with direct I/O that bypasses the operating
+    * system's cache, so that blocks are cached only
+    * in the buffer pool.
+    */
+   public enum StorageMode {
+      STANDARD,
+      MAPPED,
+      DIRECT
+   }
+
+   /**
+    * The kinds of file that the database keeps,
+    * each of which can be placed in a tablespace of its own.
+    * A file is a table unless it is a temporary table,
+    * or has been given another class.
+    */
+   public enum FileClass {
+      TABLE,
+      INDEX,
+      LOG,
+      TEMP
+   }
+
+   public static final String DEFAULT_TABLESPACE = "default";
+   public static int MAP_SEGMENT_SIZE = 64 * 1024 * 1024;
+   public static int EXTENT_SIZE = 64; // blocks
+   public static int MAX_OPEN_FILES = 256;
+
    private File dbDirectory;
    private int blocksize;
    private boolean isNew;
-   private Map<String,RandomAccessFile> openFiles = new HashMap<>();
+   private Map<String,DbFile> openFiles = new ConcurrentHashMap<>();
+   private StorageMode mode;
+   private Map<String,StorageMode> fileModes = new ConcurrentHashMap<>();
+   private PageArena arena;
+   private HandleCache handles = new HandleCache();
+   private Map<String,File> tablespaces = new ConcurrentHashMap<>();
+   private Map<FileClass,String> classSpaces = new ConcurrentHashMap<>();
+   private Map<String,String> fileSpaces = new ConcurrentHashMap<>();
+   private Map<String,FileClass> fileClasses = new ConcurrentHashMap<>();
 
    public FileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, StorageMode.STANDARD);
+   }
+
+   /**
+    * Creates a file manager whose files use the specified
+    * storage mode, unless a file is given its own mode.
+    * Temporary tables always use the standard mode,
+    * since they are short-lived and mostly written.
+    * @param dbDirectory the database directory
+    * @param blocksize the block size
+    * @param mode the storage mode of the database's files
+    */
+   public FileMgr(File dbDirectory, int blocksize, StorageMode mode) {
       this.dbDirectory = dbDirectory;
       this.blocksize = blocksize;
+      this.mode = mode;
+      arena = new PageArena(blocksize);
       isNew = !dbDirectory.exists();
 
       // create the directory if the database is new
       if (isNew)
          dbDirectory.mkdirs();
+      if (mode == StorageMode.DIRECT)
+         checkDirectIO();
 
       // remove any leftover temporary tables
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          		new File(dbDirectory, filename).delete();
+      tablespaces.put(DEFAULT_TABLESPACE, dbDirectory);
+   }
+
+   /**
+    * Adds a tablespace, which is a named directory in which
+    * files can be placed, such as one on a separate device.
+    * The directory is created if necessary, and any temporary
+    * tables left in it by an earlier run are removed.
+    * @param name the name of the tablespace
+    * @param dir the tablespace's directory
+    */
+   public void addTablespace(String name, File dir) {
+      if (!dir.exists())
+         dir.mkdirs();
+      if (tablespaces.putIfAbsent(name, dir) == null && !dir.equals(dbDirectory))
+         for (String filename : dir.list())
+            if (filename.startsWith("temp"))
+               new File(dir, filename).delete();
+   }
+
+   /**
+    * Places the files of the specified class in a tablespace,
+    * unless a file is placed in a tablespace of its own.
+    * Files that already exist stay where they are.
+    * @param fileclass the class of files
+    * @param tsname the name of the tablespace
+    */
+   public void setTablespace(FileClass fileclass, String tsname) {
+      classSpaces.put(fileclass, checkTablespace(tsname));
+   }
+
+   /**
+    * Places the specified file in a tablespace.
+    * The placement takes effect when the file is first opened,
+    * and a file that already exists elsewhere is not moved.
+    * @param filename the name of the file
+    * @param tsname the name of the tablespace
+    */
+   public void setTablespace(String filename, String tsname) {
+      fileSpaces.put(filename, checkTablespace(tsname));
+   }
+
+   /**
+    * Sets the class of the specified file,
+    * which determines its default tablespace.
+    * @param filename the name of the file
+    * @param fileclass the class of the file
+    */
+   public void setFileClass(String filename, FileClass fileclass) {
+      fileClasses.put(filename, fileclass);
+   }
+
+   /**
+    * Returns the directory that holds, or will hold,
+    * the specified file.
+    * A file that exists in one of the tablespaces is found there,
+    * which is also how recovery finds the files of tables and
+    * indexes before the catalog says where they were placed.
+    * A new file goes in its own tablespace, if it was placed
+    * in one, and otherwise in the tablespace of its class.
+    * @param filename the name of the file
+    * @return the file's directory
+    */
+   public File directory(String filename) {
+      for (File dir : tablespaces.values())
+         if (new File(dir, filename).exists())
+            return dir;
+      String tsname = fileSpaces.get(filename);
+      if (tsname == null)
+         tsname = classSpaces.getOrDefault(fileClass(filename), DEFAULT_TABLESPACE);
+      return tablespaces.get(tsname);
    }
 
-   public synchronized void read(BlockId blk, Page p) {
+   private FileClass fileClass(String filename) {
+      FileClass c = fileClasses.get(filename);
+      if (c != null)
+         return c;
+      return filename.startsWith("temp") ? FileClass.TEMP : FileClass.TABLE;
+   }
+
+   private String checkTablespace(String tsname) {
+      if (!tablespaces.containsKey(tsname))
+         throw new RuntimeException("cannot find tablespace " + tsname);
+      return tsname;
+   }
+
+   public void read(BlockId blk, Page p) {
+      try {
+         getFile(blk.fileName()).read(blk.number(), p.contents());
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read block " + blk);
+      }
+   }
+
+   /**
+    * Reads consecutive blocks of a file, starting at
+    * the specified block, into the specified pages
+    * with a single scattering read.
+    * @param blk the block read into the first page
+    * @param pages the pages to read into
+    */
+   public void read(BlockId blk, Page[] pages) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
+         ByteBuffer[] bbs = new ByteBuffer[pages.length];
+         for (int i=0; i<pages.length; i++)
+            bbs[i] = pages[i].contents();
+         getFile(blk.fileName()).read(blk.number(), bbs);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
-   public synchronized void write(BlockId blk, Page p) {
+   public void write(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
+         getFile(blk.fileName()).write(blk.number(), p.contents());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block " + e);
       }
    }
 
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   /**
+    * Writes the specified pages to consecutive blocks
+    * of a file, starting at the specified block,
+    * with a single gathering write.
+    * @param blk the block to which the first page is written
+    * @param pages the pages to write
+    */
+   public void write(BlockId blk, Page[] pages) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.write(b);
+         ByteBuffer[] bbs = new ByteBuffer[pages.length];
+         for (int i=0; i<pages.length; i++)
+            bbs[i] = pages[i].contents();
+         getFile(blk.fileName()).write(blk.number(), bbs);
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot append block" + blk);
+         throw new RuntimeException("cannot write block " + e);
       }
-      return blk;
    }
 
+   public BlockId append(String filename) {
+      try {
+         int newblknum = getFile(filename).append();
+         return new BlockId(filename, newblknum);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot append block to " + filename);
+      }
+   }
+
+   /**
+    * Returns the number of blocks in the specified file.
+    * The length of an open file is kept in memory,
+    * so no system call is made.
+    * @param filename the name of the file
+    * @return the number of blocks in the file
+    */
    public int length(String filename) {
       try {
-         RandomAccessFile f = getFile(filename);
-         return (int)(f.length() / blocksize);
+         return getFile(filename).length();
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Determines whether the specified file exists,
+    * without creating it the way the other operations do.
+    * Used by background readers, which must not bring back
+    * a file that has just been deleted.
+    * @param filename the name of the file
+    * @return true if the file exists
+    */
+   public boolean exists(String filename) {
+      if (openFiles.containsKey(filename))
+         return true;
+      for (File dir : tablespaces.values())
+         if (new File(dir, filename).exists())
+            return true;
+      return false;
+   }
+
+   /**
+    * Forces the writes made to the specified file to disk.
+    * Temporary tables are never synced, since they
+    * do not survive a crash anyway.
+    * @param filename the name of the file
+    */
+   public void sync(String filename) {
+      if (filename.startsWith("temp"))
+         return;
+      DbFile f = openFiles.get(filename);
+      if (f == null)
+         return;
+      try {
+         f.sync();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot sync " + filename);
+      }
+   }
+
+   /**
+    * Forces the writes made to every open file,
+    * other than temporary tables, to disk.
+    */
+   public void syncAll() {
+      for (String filename : openFiles.keySet())
+         sync(filename);
+   }
+
    public void closeAll() throws IOException {
-      for (Map.Entry<String, RandomAccessFile> kvp : openFiles.entrySet()) {
-         kvp.getValue().close();
+      for (DbFile f : openFiles.values())
+         f.close();
+   }
+
+   /**
+    * Deletes the specified file, which must not be in use.
+    * Used to discard a temporary table as soon as
+    * it is no longer needed.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      try {
+         synchronized (openFiles) {
+            DbFile f = openFiles.remove(filename);
+            if (f != null)
+               handles.close(f);
+         }
+         File file = new File(directory(filename), filename);
+         Files.deleteIfExists(file.toPath());
+         Files.deleteIfExists(DbFile.lengthFile(file).toPath());
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot delete " + filename);
       }
    }
 
+   /**
+    * Returns the names of the files, in any tablespace,
+    * whose names start with the specified prefix.
+    * @param prefix the beginning of the file names
+    * @return the names of the matching files
+    */
+   public List<String> fileNames(String prefix) {
+      List<String> names = new ArrayList<>();
+      for (File dir : new HashSet<>(tablespaces.values()))
+         for (String filename : dir.list())
+            if (filename.startsWith(prefix))
+               names.add(filename);
+      return names;
+   }
+
+   /**
+    * Returns the number of files whose channels are open.
+    * The channels of files that have not been used
+    * recently are closed once there are MAX_OPEN_FILES.
+    * @return the number of open file handles
+    */
+   public int openHandles() {
+      return handles.size();
+   }
+
+   /**
+    * Sets the storage mode of the specified file.
+    * The mode takes effect when the file is first opened.
+    * @param filename the name of the file
+    * @param mode the storage mode of the file
+    */
+   public void setStorageMode(String filename, StorageMode mode) {
+      if (mode == StorageMode.DIRECT)
+         checkDirectIO();
+      fileModes.put(filename, mode);
+   }
+
+   private StorageMode storageMode(String filename) {
+      StorageMode m = fileModes.get(filename);
+      if (m != null)
+         return m;
+      return filename.startsWith("temp") ? StorageMode.STANDARD : mode;
+   }
+
    public boolean isNew() {
       return isNew;
    }
@@ -87,12 +377,51 @@ public class FileMgr {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
-      RandomAccessFile f = openFiles.get(filename);
+   /**
+    * Returns the arena from which the pages of the
+    * buffer pool and the log are allocated.
+    * @return the page arena
+    */
+   public PageArena arena() {
+      return arena;
+   }
+
+   /**
+    * Direct I/O transfers whole blocks of the file system
+    * between the disk and page-aligned memory, so the block
+    * size must be a multiple of both the file system's block
+    * size and the alignment of the pages of the arena.
+    */
+   private void checkDirectIO() {
+      long fsblock;
+      try {
+         fsblock = Files.getFileStore(dbDirectory.toPath()).getBlockSize();
+      }
+      catch (IOException | UnsupportedOperationException e) {
+         throw new RuntimeException("cannot use direct I/O in " + dbDirectory);
+      }
+      if (blocksize % PageArena.ALIGNMENT != 0 || PageArena.ALIGNMENT % fsblock != 0)
+         throw new RuntimeException("cannot use direct I/O with a block size of "
+               + blocksize + " on a file system with blocks of " + fsblock);
+   }
+
+   private DbFile getFile(String filename) throws IOException {
+      DbFile f = openFiles.get(filename);
       if (f == null) {
-         File dbTable = new File(dbDirectory, filename);
-         f = new RandomAccessFile(dbTable, "rws");
-         openFiles.put(filename, f);
+         synchronized (openFiles) {
+            f = openFiles.get(filename);
+            if (f == null) {
+               File file = new File(directory(filename), filename);
+               StorageMode m = storageMode(filename);
+               if (m == StorageMode.MAPPED)
+                  f = new MappedDbFile(file, blocksize, handles);
+               else if (m == StorageMode.DIRECT)
+                  f = new DirectDbFile(file, blocksize, handles, arena);
+               else
+                  f = new DbFile(file, blocksize, handles);
+               openFiles.put(filename, f);
+            }
+         }
       }
       return f;
    }
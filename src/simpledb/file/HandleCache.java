@@ -0,0 +1,152 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Bounds the number of database files whose channels are open.
+ * When a channel has to be opened and {@link FileMgr#MAX_OPEN_FILES}
+ * are open already, the channel of a file that has not been used
+ * recently, and that no operation holds, is closed first.
+ * If every open channel is held, the limit is exceeded for
+ * the time being, rather than closing a channel in use.
+ * <P>
+ * The open files are kept in access order.
+ * Using a channel that is already open does not involve the cache;
+ * it only marks the file as referenced, and the cache moves
+ * a referenced file to the recent end when it comes across it
+ * while looking for a channel to close.
+ * <P>
+ * The victim is chosen, and marked as closing, under the cache's lock.
+ * Closing the channel, which may have to force the file's writes
+ * to disk, happens after the lock is released, so that it
+ * does not hold up the opening of other files.
+ */
+class HandleCache {
+   private Map<DbFile,Boolean> open = new LinkedHashMap<>(16, 0.75f, true);
+
+   /**
+    * Opens the channel of the specified file,
+    * unless another thread has opened it in the meantime.
+    * If the file's channel is being closed, waits for the close to finish.
+    * @param f the file
+    */
+   void open(DbFile f) throws IOException {
+      List<DbFile> victims = new ArrayList<>();
+      synchronized (this) {
+         awaitClosed(f);
+         if (f.isOpen())
+            return;
+         while (open.size() >= FileMgr.MAX_OPEN_FILES) {
+            DbFile victim = chooseVictim();
+            if (victim == null)
+               break;
+            victims.add(victim);
+         }
+         f.openChannel();
+         open.put(f, Boolean.TRUE);
+      }
+      finishClosing(victims);
+   }
+
+   /**
+    * Closes the channel of the specified file,
+    * which no operation may be holding.
+    * @param f the file
+    */
+   void close(DbFile f) throws IOException {
+      synchronized (this) {
+         awaitClosed(f);
+         if (!f.isOpen())
+            return;
+         if (!f.beginClose())
+            throw new IOException("the file is in use");
+         open.remove(f);
+      }
+      finishClosing(List.of(f));
+   }
+
+   /**
+    * Returns the number of files whose channels are open.
+    * @return the number of open channels
+    */
+   synchronized int size() {
+      return open.size();
+   }
+
+   /**
+    * Finds the least recently used file that is not in use,
+    * marks it as closing, and removes it from the open files.
+    * Files that were used since they were last looked at
+    * are moved to the recent end instead.
+    * @return the file, or null if every open channel is in use
+    */
+   private DbFile chooseVictim() {
+      int n = open.size();
+      Iterator<DbFile> iter = open.keySet().iterator();
+      List<DbFile> used = new ArrayList<>();
+      DbFile victim = null;
+      for (int i = 0; i < n && victim == null; i++) {
+         DbFile f = iter.next();
+         if (f.wasReferenced() || !f.beginClose())
+            used.add(f);
+         else
+            victim = f;
+      }
+      for (DbFile f : used)
+         open.get(f);
+      if (victim == null) {
+         // every file had been used; try again in the new order
+         for (DbFile f : open.keySet())
+            if (!f.wasReferenced() && f.beginClose()) {
+               victim = f;
+               break;
+            }
+      }
+      if (victim != null)
+         open.remove(victim);
+      return victim;
+   }
+
+   /**
+    * Closes the channels of files that are marked as closing,
+    * and wakes up the threads waiting for them.
+    * Called without holding the cache's lock.
+    */
+   private void finishClosing(List<DbFile> files) throws IOException {
+      IOException failure = null;
+      for (DbFile f : files) {
+         try {
+            f.finishClose();
+         }
+         catch (IOException e) {
+            failure = e;
+         }
+      }
+      if (!files.isEmpty()) {
+         synchronized (this) {
+            notifyAll();
+         }
+      }
+      if (failure != null)
+         throw failure;
+   }
+
+   /**
+    * Waits until the specified file's channel is not closing.
+    * Called while holding the cache's lock.
+    */
+   private void awaitClosed(DbFile f) {
+      boolean interrupted = false;
+      while (f.isClosing()) {
+         try {
+            wait();
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+}
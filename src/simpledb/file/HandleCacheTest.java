@@ -0,0 +1,34 @@
+package simpledb.file;
+
+import simpledb.server.SimpleDB;
+
+public class HandleCacheTest {
+   private static final int FILES = 20;
+
+   public static void main(String[] args) {
+      FileMgr.MAX_OPEN_FILES = 4;
+      SimpleDB db = new SimpleDB("handletest", 400, 8);
+      FileMgr fm = db.fileMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<FILES; i++) {
+         BlockId blk = new BlockId("file" + i, 0);
+         p.setInt(0, i);
+         fm.write(blk, p);
+      }
+      System.out.println("open handles after writing " + FILES
+            + " files: " + fm.openHandles());
+
+      // the closed files are reopened, and keep their contents
+      boolean ok = true;
+      for (int i=0; i<FILES; i++) {
+         fm.read(new BlockId("file" + i, 0), p);
+         ok = ok && p.getInt(0) == i && fm.length("file" + i) == 1;
+      }
+      System.out.println("contents intact: " + ok
+            + ", open handles: " + fm.openHandles());
+
+      fm.delete("file0");
+      System.out.println("length of deleted file: " + fm.length("file0"));
+      db.shutdown();
+   }
+}
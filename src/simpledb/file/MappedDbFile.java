@@ -0,0 +1,142 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A database file whose blocks are read and written
+ * through memory mappings of the file.
+ * The file is mapped in segments of
+ * {@link FileMgr#MAP_SEGMENT_SIZE} bytes.
+ * Reading a block that is resident in memory is then a copy
+ * from the mapping into the page, with no system call.
+ * The page is still a copy, because a buffer must not reach
+ * the disk before its log records do.
+ * <P>
+ * A mapping covers only the blocks that existed when it was made,
+ * since mapping past the end of the file would grow the file.
+ * When a block beyond the mapping is needed, the segment
+ * is mapped again; blocks beyond the end of the file
+ * are read and written through the channel.
+ * A sync forces the channel, and only those mappings
+ * that have been written since the last sync.
+ */
+class MappedDbFile extends DbFile {
+   private int segmentBlocks;
+   private volatile AtomicReferenceArray<MappedByteBuffer> segments =
+         new AtomicReferenceArray<>(16);
+   private Set<Integer> dirtySegments = ConcurrentHashMap.newKeySet();
+
+   MappedDbFile(File file, int blocksize, HandleCache cache) throws IOException {
+      super(file, blocksize, cache);
+      segmentBlocks = Math.max(1, FileMgr.MAP_SEGMENT_SIZE / blocksize);
+   }
+
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      ByteBuffer src = blockOf(blknum);
+      if (src == null)
+         super.read(blknum, bb);
+      else
+         bb.put(src);
+   }
+
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      ByteBuffer dst = blockOf(blknum);
+      if (dst == null) {
+         super.write(blknum, bb);
+         return;
+      }
+      dst.put(bb);
+      dirtySegments.add(blknum / segmentBlocks);
+      changed(blknum + 1);
+   }
+
+   void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++)
+         read(blknum + i, bbs[i]);
+   }
+
+   void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++)
+         write(blknum + i, bbs[i]);
+   }
+
+   /**
+    * Forces the mappings of the segments written since the
+    * last sync, and then the channel.
+    * A segment written while the sync is in progress
+    * stays dirty, for the next sync to force.
+    */
+   void sync() throws IOException {
+      for (Integer seg : dirtySegments) {
+         dirtySegments.remove(seg);
+         MappedByteBuffer m = segments.get(seg);
+         if (m != null)
+            m.force();
+      }
+      super.sync();
+   }
+
+   /**
+    * Returns a view of the specified block in its segment's mapping,
+    * or null if the block is beyond the end of the file.
+    */
+   private ByteBuffer blockOf(int blknum) throws IOException {
+      int seg = blknum / segmentBlocks;
+      int offset = (blknum % segmentBlocks) * blocksize;
+      MappedByteBuffer m = mapping(seg, offset + blocksize);
+      if (m == null)
+         return null;
+      ByteBuffer view = m.duplicate();
+      view.position(offset);
+      view.limit(offset + blocksize);
+      return view;
+   }
+
+   /**
+    * Returns a mapping of the specified segment that is at least
+    * the specified number of bytes long, mapping the segment
+    * again if the file has grown.
+    * Returns null if the file is too short.
+    */
+   private MappedByteBuffer mapping(int seg, int needed) throws IOException {
+      if (seg >= segments.length())
+         growSegments(seg);
+      MappedByteBuffer m = segments.get(seg);
+      if (m != null && m.capacity() >= needed)
+         return m;
+      synchronized (this) {
+         m = segments.get(seg);
+         if (m != null && m.capacity() >= needed)
+            return m;
+         FileChannel ch = acquire();
+         try {
+            long start = (long) seg * segmentBlocks * blocksize;
+            long size = Math.min((long) segmentBlocks * blocksize, ch.size() - start);
+            if (size < needed)
+               return null;
+            m = ch.map(MapMode.READ_WRITE, start, size);
+            segments.set(seg, m);
+            return m;
+         }
+         finally {
+            release();
+         }
+      }
+   }
+
+   private synchronized void growSegments(int seg) {
+      if (seg < segments.length())
+         return;
+      AtomicReferenceArray<MappedByteBuffer> bigger =
+            new AtomicReferenceArray<>(Math.max(seg + 1, 2 * segments.length()));
+      for (int i=0; i<segments.length(); i++)
+         bigger.set(i, segments.get(i));
+      segments = bigger;
+   }
+}
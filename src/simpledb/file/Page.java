@@ -17,6 +17,11 @@ public class Page {
       bb = ByteBuffer.wrap(b);
    }
 
+   // For creating pages sliced from a PageArena
+   Page(ByteBuffer bb) {
+      this.bb = bb;
+   }
+
    public int getInt(int offset) {
       return bb.getInt(offset);
    }
@@ -38,6 +43,20 @@ public class Page {
       bb.putInt(b.length);
       bb.put(b);
    }
+
+   /**
+    * Writes a blob like setBytes, but without moving the
+    * page's position, so that several threads can write
+    * disjoint parts of the page at the same time.
+    * @param offset the offset of the blob
+    * @param b the blob
+    */
+   public void setBytesConcurrently(int offset, byte[] b) {
+      ByteBuffer dup = bb.duplicate();
+      dup.position(offset);
+      dup.putInt(b.length);
+      dup.put(b);
+   }
    
    public String getString(int offset) {
       byte[] b = getBytes(offset);
@@ -0,0 +1,134 @@
+package simpledb.file;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocates the pages of the database's buffers and log.
+ * Rather than allocating direct memory for each page,
+ * the arena allocates large slabs of it and slices
+ * them into pages.
+ * Each slab begins on an ALIGNMENT boundary, and each page
+ * on a cache-line boundary within its slab, so that when the
+ * block size is a multiple of ALIGNMENT, every page is aligned
+ * as direct I/O requires.
+ * <P>
+ * A freed page goes on a free list, and is handed out again,
+ * zeroed, by a later allocation; slabs are never given back.
+ * Transient pages, such as those of log iterators,
+ * are therefore recycled rather than allocated anew.
+ */
+public class PageArena {
+   public static int SLAB_SIZE = 4 * 1024 * 1024;
+   public static final int ALIGNMENT = 4096;
+   private static final int CACHE_LINE = 64;
+   private static final Cleaner cleaner = Cleaner.create();
+
+   private int blocksize, stride;
+   private ByteBuffer zeros;
+   private ByteBuffer slab = null;
+   private int slabPages, nextPage;
+   private long capacity = 0;
+   private ConcurrentLinkedQueue<ByteBuffer> freeList = new ConcurrentLinkedQueue<>();
+   private AtomicInteger inUse = new AtomicInteger();
+
+   /**
+    * Creates an arena of pages of the specified size.
+    * No memory is allocated until the first page is.
+    * @param blocksize the size of each page
+    */
+   public PageArena(int blocksize) {
+      this.blocksize = blocksize;
+      stride = (blocksize + CACHE_LINE - 1) / CACHE_LINE * CACHE_LINE;
+      zeros = ByteBuffer.allocateDirect(blocksize);
+   }
+
+   /**
+    * Returns a zeroed page, taken from the free list
+    * if possible, and otherwise sliced from the current slab.
+    * @return the new page
+    */
+   public Page allocate() {
+      ByteBuffer bb = freeList.poll();
+      if (bb != null) {
+         bb.clear();
+         bb.put(zeros.duplicate());
+      }
+      else
+         bb = slice();
+      inUse.incrementAndGet();
+      return new Page(bb);
+   }
+
+   /**
+    * Puts a page that came from this arena on the free list.
+    * The page must not be used afterwards.
+    * @param p the page
+    */
+   public void free(Page p) {
+      inUse.decrementAndGet();
+      freeList.add(p.contents());
+   }
+
+   /**
+    * Arranges for the page to be freed once the specified
+    * owner becomes unreachable, for a page whose owner
+    * may be abandoned before it can free the page itself.
+    * The returned cleanable frees the page at once
+    * when it is cleaned; the page is freed only once.
+    * @param owner the object that uses the page
+    * @param p the page
+    * @return a cleanable that frees the page
+    */
+   public Cleaner.Cleanable freeWhenUnreachable(Object owner, Page p) {
+      return cleaner.register(owner, () -> free(p));
+   }
+
+   /**
+    * Returns the number of bytes of direct memory
+    * allocated by the arena.
+    * @return the size of the arena's slabs
+    */
+   public synchronized long capacity() {
+      return capacity;
+   }
+
+   /**
+    * Returns the number of pages currently allocated.
+    * @return the number of pages in use
+    */
+   public int pagesInUse() {
+      return inUse.get();
+   }
+
+   /**
+    * Returns the number of bytes held by the pages in use.
+    * @return the bytes in use
+    */
+   public long bytesInUse() {
+      return (long) pagesInUse() * blocksize;
+   }
+
+   /**
+    * Returns the number of freed pages waiting to be reused.
+    * @return the size of the free list
+    */
+   public int freePages() {
+      return freeList.size();
+   }
+
+   private synchronized ByteBuffer slice() {
+      if (slab == null || nextPage == slabPages) {
+         slabPages = Math.max(1, SLAB_SIZE / stride);
+         int size = slabPages * stride;
+         slab = ByteBuffer.allocateDirect(size + ALIGNMENT).alignedSlice(ALIGNMENT);
+         capacity += size + ALIGNMENT;
+         nextPage = 0;
+      }
+      ByteBuffer bb = slab.slice(nextPage * stride, blocksize);
+      nextPage++;
+      return bb;
+   }
+}
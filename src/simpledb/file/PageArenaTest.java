@@ -0,0 +1,27 @@
+package simpledb.file;
+
+import simpledb.server.SimpleDB;
+
+public class PageArenaTest {
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("arenatest", 4096, 1000);
+      PageArena arena = db.fileMgr().arena();
+      System.out.println("after startup: " + arena.pagesInUse() + " pages, "
+            + arena.bytesInUse() + " bytes in use, "
+            + arena.capacity() + " bytes allocated");
+
+      // a freed page is reused, and comes back zeroed
+      Page p1 = arena.allocate();
+      p1.setInt(80, 345);
+      arena.free(p1);
+      long capacity = arena.capacity();
+      Page p2 = arena.allocate();
+      System.out.println("reused page contains " + p2.getInt(80)
+            + "; arena grew by " + (arena.capacity() - capacity) + " bytes");
+      System.out.println("page aligned: "
+            + (p2.contents().alignmentOffset(0, PageArena.ALIGNMENT) == 0));
+      arena.free(p2);
+      System.out.println("free pages: " + arena.freePages());
+      db.shutdown();
+   }
+}
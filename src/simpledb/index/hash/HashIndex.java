@@ -1,5 +1,6 @@
 package simpledb.index.hash;
 
+import java.util.*;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.index.Index;
@@ -123,4 +124,19 @@ public class HashIndex implements Index {
 	public static int searchCost(int numblocks, int rpb){
 		return numblocks / HashIndex.NUM_BUCKETS;
 	}
+
+	/**
+	 * Returns the names of the files that may hold the
+	 * buckets of the specified index.
+	 * A search key with a negative hash code
+	 * hashes to a negative bucket number.
+	 * @param idxname the name of the index
+	 * @return the names of the index's files
+	 */
+	public static List<String> fileNames(String idxname) {
+		List<String> names = new ArrayList<>();
+		for (int bucket=1-NUM_BUCKETS; bucket<NUM_BUCKETS; bucket++)
+			names.add(idxname + bucket + ".tbl");
+		return names;
+	}
 }
@@ -0,0 +1,69 @@
+package simpledb.log;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures commit throughput for several numbers of
+ * concurrent clients, each of which runs small transactions
+ * that update a block of its own and commit.
+ * Each measurement is made with every commit flushing the log
+ * itself, and with group commit, which also reports how many
+ * commits shared each sync of the log.
+ * The two are measured one after the other for each number
+ * of clients, after a round that warms up the JIT.
+ */
+public class GroupCommitTest {
+   private static final int[] CLIENTS = {1, 2, 4, 8, 16};
+   private static final int TXS_PER_CLIENT = 200;
+
+   public static void main(String[] args) throws Exception {
+      // a first round to warm up the JIT, whose results are not shown
+      for (int clients : CLIENTS)
+         run(true, clients, false);
+      for (int clients : CLIENTS)
+         for (boolean group : new boolean[] {false, true})
+            run(group, clients, true);
+   }
+
+   private static void run(boolean group, int clients, boolean show) throws Exception {
+      LogFlusher.ENABLED = group;
+      SimpleDB db = new SimpleDB("groupcommittest", 400, 100);
+      FileMgr fm = db.fileMgr();
+      while (fm.length("testfile") < clients)
+         fm.append("testfile");
+
+      Thread[] threads = new Thread[clients];
+      for (int i=0; i<clients; i++) {
+         BlockId blk = new BlockId("testfile", i);
+         threads[i] = new Thread(() -> {
+            for (int n=0; n<TXS_PER_CLIENT; n++) {
+               Transaction tx = db.newTx();
+               tx.pin(blk);
+               tx.setInt(blk, 80, n, true);
+               tx.commit();
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      long micros = (System.nanoTime() - start) / 1000;
+
+      String result = (group ? "group commit" : "flush per commit")
+            + " with " + clients + " clients: "
+            + (clients * TXS_PER_CLIENT * 1000000L / Math.max(1, micros))
+            + " commits/sec";
+      LogFlusher flusher = db.logMgr().flusher();
+      if (flusher != null)
+         result += String.format(", %.1f commits per sync",
+               (double) flusher.commits() / Math.max(1, flusher.batches()));
+      if (show)
+         System.out.println(result);
+      db.shutdown();
+      LogFlusher.ENABLED = true;
+   }
+}
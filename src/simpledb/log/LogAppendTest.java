@@ -0,0 +1,68 @@
+package simpledb.log;
+
+import java.util.Iterator;
+import simpledb.server.SimpleDB;
+import simpledb.file.Page;
+
+/**
+ * Measures append throughput for several numbers of
+ * concurrent writers, and then reads the log back to check
+ * that every record is there, and that each writer's
+ * records are in the order the writer appended them.
+ */
+public class LogAppendTest {
+   private static final int[] WRITERS = {1, 2, 4, 8};
+   private static final int RECORDS = 200000;
+
+   public static void main(String[] args) throws Exception {
+      for (int writers : WRITERS)
+         run(writers);
+   }
+
+   private static void run(int writers) throws Exception {
+      SimpleDB db = new SimpleDB("logappendtest" + writers, 4096, 8);
+      LogMgr lm = db.logMgr();
+      int perWriter = RECORDS / writers;
+
+      Thread[] threads = new Thread[writers];
+      for (int i=0; i<writers; i++) {
+         int id = i;
+         threads[i] = new Thread(() -> {
+            byte[] rec = new byte[2 * Integer.BYTES];
+            Page p = new Page(rec);
+            for (int n=0; n<perWriter; n++) {
+               p.setInt(0, id);
+               p.setInt(Integer.BYTES, n);
+               lm.append(rec);
+            }
+         });
+      }
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      long micros = (System.nanoTime() - start) / 1000;
+
+      // the log is read backwards, so each writer's records count down
+      int[] next = new int[writers];
+      for (int i=0; i<writers; i++)
+         next[i] = perWriter - 1;
+      boolean ok = true;
+      Iterator<byte[]> iter = lm.iterator();
+      while (iter.hasNext()) {
+         Page p = new Page(iter.next());
+         int id = p.getInt(0);
+         if (id < 0 || id >= writers || p.getInt(Integer.BYTES) != next[id]--)
+            ok = false;
+      }
+      for (int i=0; i<writers; i++)
+         if (next[i] != -1)
+            ok = false;
+
+      System.out.println(writers + " writers: "
+            + (writers * perWriter * 1000000L / Math.max(1, micros))
+            + " appends/sec, log " + (ok ? "intact" : "CORRUPT"));
+      db.shutdown();
+   }
+}
@@ -0,0 +1,181 @@
+package simpledb.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+
+/**
+ * A background thread that forces the log to disk
+ * on behalf of committing transactions, so that
+ * transactions committing at about the same time
+ * share a single write and sync of the log tail
+ * ("group commit").
+ * <P>
+ * A committing transaction registers the LSN of its
+ * commit record and waits.
+ * The flusher waits for more committers to arrive, until
+ * every active transaction is waiting, MAX_BATCH are waiting,
+ * or MAX_DELAY microseconds have passed.
+ * Waiting for the others costs little when they are about
+ * to commit, and a transaction that commits while no other
+ * is active flushes the log itself, without the flusher.
+ * The flusher then waits for the records up to the latest
+ * requested one to be copied into the log, and flushes them
+ * with a single sync, which releases every committer of the batch.
+ * Committers that arrive while the log is being synced
+ * form the next batch.
+ * <P>
+ * The flusher and the committers wait on separate conditions,
+ * so that an arriving committer wakes the flusher only when it
+ * is idle or the batch is complete, and a sync wakes only
+ * the committers.
+ */
+public class LogFlusher implements Runnable {
+   public static boolean ENABLED = true;
+   public static long MAX_DELAY = 1000; // microseconds
+   public static int MAX_BATCH = 64;
+
+   private LogMgr lm;
+   private Lock lock = new ReentrantLock();
+   private Condition requested = lock.newCondition();
+   private Condition flushed = lock.newCondition();
+   private int requestedLSN = 0, flushedLSN = 0;
+   private int waiting = 0;
+   private boolean stopped = false;
+   private Thread thread;
+   private long batches = 0, commits = 0;
+
+   LogFlusher(LogMgr lm) {
+      this.lm = lm;
+   }
+
+   /**
+    * Starts the flusher in a daemon thread.
+    */
+   void start() {
+      thread = new Thread(this, "log flusher");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Stops the flusher, after it has flushed
+    * the records that committers are waiting for.
+    */
+   void stop() {
+      lock.lock();
+      try {
+         stopped = true;
+         requested.signal();
+      }
+      finally {
+         lock.unlock();
+      }
+      try {
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         // give up waiting
+      }
+   }
+
+   /**
+    * Waits until the log record having the specified LSN
+    * has been written to disk by the flusher.
+    * The wait is not interrupted, since the record
+    * is in the log and the commit has to finish.
+    * @param lsn the LSN of a commit or rollback record
+    */
+   void waitFor(int lsn) {
+      lock.lock();
+      try {
+         if (stopped) {
+            lm.flush(lsn);
+            return;
+         }
+         boolean idle = requestedLSN <= flushedLSN;
+         requestedLSN = Math.max(requestedLSN, lsn);
+         waiting++;
+         if (idle || waiting >= batchSize())
+            requested.signal();
+         while (flushedLSN < lsn)
+            flushed.awaitUninterruptibly();
+         waiting--;
+         commits++;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of log syncs made by the flusher.
+    * @return the number of batches
+    */
+   public long batches() {
+      lock.lock();
+      try {
+         return batches;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of commits made durable by the flusher,
+    * counted as each committer is released.
+    * @return the number of commits
+    */
+   public long commits() {
+      lock.lock();
+      try {
+         return commits;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of committers worth waiting for:
+    * no more can arrive than there are active transactions.
+    */
+   private int batchSize() {
+      return Math.max(1, Math.min(MAX_BATCH, lm.activeTxCount()));
+   }
+
+   public void run() {
+      try {
+         while (true) {
+            int target;
+            lock.lock();
+            try {
+               while (requestedLSN <= flushedLSN && !stopped)
+                  requested.await();
+               if (requestedLSN <= flushedLSN)
+                  return;
+               long remaining = TimeUnit.MICROSECONDS.toNanos(MAX_DELAY);
+               while (waiting < batchSize() && !stopped && remaining > 0)
+                  remaining = requested.awaitNanos(remaining);
+               target = requestedLSN;
+            }
+            finally {
+               lock.unlock();
+            }
+            int lsn = lm.flushTail(target);
+            lock.lock();
+            try {
+               flushedLSN = Math.max(flushedLSN, lsn);
+               batches++;
+               flushed.signalAll();
+            }
+            finally {
+               lock.unlock();
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         // the database is shutting down
+      }
+   }
+}
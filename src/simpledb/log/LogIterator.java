@@ -1,5 +1,6 @@
 package simpledb.log;
 
+import java.lang.ref.Cleaner;
 import java.util.Iterator;
 import simpledb.file.*;
 
@@ -11,30 +12,42 @@ import simpledb.file.*;
  */
 class LogIterator implements Iterator<byte[]> {
    private FileMgr fm;
-   private BlockId blk;
+   private LogMgr lm;
+   private int blknum;
    private Page p;
+   private Cleaner.Cleanable cleanable;
    private int currentpos;
    private int boundary;
 
    /**
     * Creates an iterator for the records in the log file,
     * positioned after the last log record.
+    * Blocks are numbered across the segments of the log.
     */
-   public LogIterator(FileMgr fm, BlockId blk) {
+   public LogIterator(FileMgr fm, LogMgr lm, int blknum) {
       this.fm = fm;
-      this.blk = blk;
-      byte[] b = new byte[fm.blockSize()];
-      p = new Page(b);
-      moveToBlock(blk);
+      this.lm = lm;
+      this.blknum = blknum;
+      p = fm.arena().allocate();
+      cleanable = fm.arena().freeWhenUnreachable(this, p);
+      moveToBlock(blknum);
    }
 
    /**
     * Determines if the current log record
     * is the earliest record in the log file.
+    * The earliest record is the first record of the
+    * oldest segment that has not been truncated.
+    * The iterator's page goes back to the page arena
+    * once the log is exhausted, or once an unfinished
+    * iterator is abandoned.
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentpos<fm.blockSize() || blk.number()>0;
+      boolean more = currentpos<fm.blockSize() || blknum>lm.firstBlock();
+      if (!more)
+         cleanable.clean();
+      return more;
    }
 
    /**
@@ -42,12 +55,13 @@ class LogIterator implements Iterator<byte[]> {
     * If there are no more log records in the block,
     * then move to the previous block
     * and return the log record from there.
+    * The previous block may be in the previous segment.
     * @return the next earliest log record
     */
    public byte[] next() {
       if (currentpos == fm.blockSize()) {
-         blk = new BlockId(blk.fileName(), blk.number()-1);
-         moveToBlock(blk);
+         blknum--;
+         moveToBlock(blknum);
       }
       byte[] rec = p.getBytes(currentpos);
       currentpos += Integer.BYTES + rec.length;
@@ -59,8 +73,8 @@ class LogIterator implements Iterator<byte[]> {
     * and positions it at the first record in that block
     * (i.e., the most recent one).
     */
-   private void moveToBlock(BlockId blk) {
-      fm.read(blk, p);
+   private void moveToBlock(int blknum) {
+      fm.read(lm.block(blknum), p);
       boundary = p.getInt(0);
       currentpos = boundary;
    }
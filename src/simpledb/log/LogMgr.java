@@ -1,41 +1,159 @@
 package simpledb.log;
 
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
 import simpledb.file.*;
 
 /**
- * The log manager, which is responsible for 
- * writing log records into a log file. The tail of 
- * the log is kept in a bytebuffer, which is flushed
- * to disk when needed. 
+ * The log manager, which is responsible for
+ * writing log records into a log file. The tail of
+ * the log is kept in a ring of pages, which
+ * hold the most recent blocks of the log file, and
+ * are flushed to disk when needed.
+ * <P>
+ * Appending a record takes three steps, so that
+ * concurrent transactions can append in parallel.
+ * A writer first reserves an LSN and the space for its record,
+ * which is the only step that is serialized.
+ * It then copies the record into the reserved space,
+ * at the same time as other writers copy theirs.
+ * Finally it marks the record as copied. Records are published
+ * in LSN order, as soon as all earlier records have been copied,
+ * and only published records are written to disk,
+ * so the log on disk never has a gap.
+ * <P>
+ * The log is kept in segment files of a fixed number of blocks,
+ * named after the log file followed by the segment's number.
+ * Blocks are numbered across the segments, so that block n
+ * is block n % segmentSize of segment n / segmentSize.
+ * Segments that hold only records that are no longer needed,
+ * because they precede a checkpoint and every active
+ * transaction, are deleted by {@link #truncate(int)}.
+ * The segment size must not change for an existing database.
  * @author Edward Sciore
  */
 public class LogMgr {
+   public static final int DEFAULT_RING_SIZE = 8;
+   public static final int DEFAULT_SEGMENT_SIZE = 256; // blocks
+   public static int MAX_INDEXED = 1 << 20; // records
+   private static final int PENDING = 4096;
+   private static final int INDEX_CHUNK = 4096;
+
    private FileMgr fm;
    private String logfile;
-   private Page logpage;
-   private BlockId currentblk;
-   private int latestLSN = 0;
-   private int lastSavedLSN = 0;
+   private int ringSize;
+   private int segmentSize;
+   private Page[] ring;
+   private int[] lastLSN;           // latest LSN reserved in each page
+   private int[] publishedBoundary; // boundary of the latest published record in each page
+
+   // reservation, guarded by reserveLock
+   private final Object reserveLock = new Object();
+   private volatile int tailblk;
+   private int boundary;
+   private volatile int latestLSN = 0;
+
+   // publication, guarded by publishLock
+   private final Object publishLock = new Object();
+   private volatile int publishedLSN = 0;
+   private int publishedBlk;
+   private AtomicIntegerArray copiedLSN = new AtomicIntegerArray(PENDING);
+   private int[] copiedBlk = new int[PENDING];
+   private int[] copiedPos = new int[PENDING];
+
+   // flushing, guarded by the log manager itself
+   private volatile int firstUnwritten;
+   private volatile int lastWrittenBlk;
+   private volatile int lastWrittenLSN = 0;
+   private volatile int lastSavedLSN = 0;
+   private LogFlusher flusher;
+   private int firstUnsynced;
+
+   // the live segments, each mapped to the LSN of its first record;
+   // segments left by an earlier run have no records of this run
+   private NavigableMap<Integer,Integer> segments = new ConcurrentSkipListMap<>();
+   private volatile int firstBlk;
+
+   // the active transactions, each mapped to the LSN of its START record
+   private Map<Integer,Integer> activeTxs = new HashMap<>();
+
+   // the address (block and offset) of each record, in chunks of LSNs;
+   // chunks before the START record of every active transaction are
+   // dropped, and so are chunks more than MAX_INDEXED records old
+   private Map<Integer,long[]> addresses = new ConcurrentHashMap<>();
+   private volatile int oldestNeededLSN = 0;
 
    /**
     * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
-    * with an empty first block.
+    * If the log does not yet exist, its first segment
+    * is created with an empty first block.
     * @param FileMgr the file manager
     * @param logfile the name of the log file
     */
    public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, DEFAULT_RING_SIZE, DEFAULT_SEGMENT_SIZE);
+   }
+
+   /**
+    * Creates the manager for the specified log file,
+    * with the specified number of pages in the ring
+    * and blocks in each segment.
+    * The ring needs at least two pages, so that the page
+    * being written to disk is never the one being filled.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log file
+    * @param ringSize the number of pages in the ring
+    * @param segmentSize the number of blocks in each segment
+    */
+   public LogMgr(FileMgr fm, String logfile, int ringSize, int segmentSize) {
+      if (ringSize < 2)
+         throw new IllegalArgumentException("the log ring needs at least 2 pages");
+      if (segmentSize < 1)
+         throw new IllegalArgumentException("a log segment needs at least 1 block");
       this.fm = fm;
       this.logfile = logfile;
-      byte[] b = new byte[fm.blockSize()];
-      logpage = new Page(b);
-      int logsize = fm.length(logfile);
-      if (logsize == 0)
-         currentblk = appendNewBlock();
+      this.ringSize = ringSize;
+      this.segmentSize = segmentSize;
+      for (String filename : fm.fileNames(logfile + ".")) {
+         try {
+            addSegment(Integer.parseInt(filename.substring(logfile.length() + 1)), 0);
+         }
+         catch (NumberFormatException e) {
+            // not a segment of the log
+         }
+      }
+      if (segments.isEmpty())
+         addSegment(0, 0);
+      firstBlk = segments.firstKey() * segmentSize;
+      ring = new Page[ringSize];
+      for (int i=0; i<ringSize; i++)
+         ring[i] = fm.arena().allocate();
+      lastLSN = new int[ringSize];
+      publishedBoundary = new int[ringSize];
+
+      int lastseg = segments.lastKey();
+      int segsize = fm.length(segmentName(lastseg));
+      if (segsize == 0) {
+         fm.append(segmentName(lastseg));
+         tailblk = lastseg * segmentSize;
+         boundary = fm.blockSize();
+         page(tailblk).setInt(0, boundary);
+         fm.write(block(tailblk), page(tailblk));
+      }
       else {
-         currentblk = new BlockId(logfile, logsize-1);
-         fm.read(currentblk, logpage);
+         tailblk = lastseg * segmentSize + segsize - 1;
+         fm.read(block(tailblk), page(tailblk));
+         boundary = page(tailblk).getInt(0);
+      }
+      publishedBlk = tailblk;
+      publishedBoundary[slot(tailblk)] = boundary;
+      firstUnwritten = lastWrittenBlk = firstUnsynced = tailblk;
+
+      if (LogFlusher.ENABLED) {
+         flusher = new LogFlusher(this);
+         flusher.start();
       }
    }
 
@@ -46,18 +164,228 @@ public class LogMgr {
     * @param lsn the LSN of a log record
     */
    public void flush(int lsn) {
-      if (lsn >= lastSavedLSN)
-         flush();
+      if (lsn <= lastSavedLSN)
+         return;
+      synchronized (this) {
+         if (lsn <= lastSavedLSN)
+            return;
+         awaitPublished(Math.min(lsn, latestLSN));
+         writeAndSync();
+      }
+   }
+
+   /**
+    * Ensures that the specified commit or rollback record
+    * has been written to disk, by waiting for the log flusher
+    * to write it along with the records of other committing
+    * transactions.
+    * Without a flusher, or when no other transaction is
+    * active to share the sync with, the record is flushed
+    * right away.
+    * @param lsn the LSN of a commit or rollback record
+    */
+   public void flushCommit(int lsn) {
+      if (flusher == null || lsn <= lastSavedLSN || activeTxCount() <= 1)
+         flush(lsn);
+      else
+         flusher.waitFor(lsn);
+   }
+
+   /**
+    * Returns the log flusher, or null if group commit is disabled.
+    * @return the log flusher
+    */
+   public LogFlusher flusher() {
+      return flusher;
+   }
+
+   /**
+    * Stops the log flusher, after it has flushed the
+    * records of the transactions waiting for it.
+    */
+   public void shutdown() {
+      if (flusher != null)
+         flusher.stop();
    }
 
+   /**
+    * Returns an iterator over the records of the log,
+    * from the most recent back to the oldest record
+    * in the live segments.
+    * @return an iterator over the log records
+    */
    public Iterator<byte[]> iterator() {
-      flush();
-      return new LogIterator(fm, currentblk);
+      flush(Integer.MAX_VALUE);
+      return new LogIterator(fm, this, lastWrittenBlk);
+   }
+
+   /**
+    * Appends the START record of the specified transaction,
+    * and records that the transaction is active.
+    * The transaction's records are needed until it finishes,
+    * so the segments holding them are not truncated.
+    * @param txnum the id of the transaction
+    * @param startrec the START record
+    * @return the LSN of the START record
+    */
+   public int appendStart(int txnum, byte[] startrec) {
+      synchronized (activeTxs) {
+         int lsn = append(startrec);
+         activeTxs.put(txnum, lsn);
+         return lsn;
+      }
+   }
+
+   /**
+    * Appends the checkpoint records that list the active transactions.
+    * No transaction starts while the records are appended, so
+    * a transaction missing from the list either finished before
+    * the checkpoint or has its START record after it.
+    * @param checkpoint makes the checkpoint records, in the order
+    *                   to append them, from the ids of the active
+    *                   transactions
+    * @return the LSN of the last checkpoint record
+    */
+   public int appendCheckpoint(Function<List<Integer>,List<byte[]>> checkpoint) {
+      synchronized (activeTxs) {
+         int lsn = -1;
+         for (byte[] rec : checkpoint.apply(new ArrayList<>(activeTxs.keySet())))
+            lsn = append(rec);
+         return lsn;
+      }
+   }
+
+   /**
+    * Returns the size of the largest record
+    * that fits in a block of the log.
+    * @return the largest record size, in bytes
+    */
+   public int maxRecordSize() {
+      return fm.blockSize() - 2 * Integer.BYTES;
+   }
+
+   /**
+    * Returns the number of transactions that have
+    * started and not yet finished.
+    */
+   int activeTxCount() {
+      synchronized (activeTxs) {
+         return activeTxs.size();
+      }
+   }
+
+   /**
+    * Records that the specified transaction has
+    * committed or rolled back.
+    * @param txnum the id of the transaction
+    */
+   public void txFinished(int txnum) {
+      synchronized (activeTxs) {
+         activeTxs.remove(txnum);
+         int oldest = latestLSN;
+         for (int start : activeTxs.values())
+            oldest = Math.min(oldest, start);
+         oldestNeededLSN = oldest;
+      }
+   }
+
+   /**
+    * Determines whether the address of the specified record
+    * is still in the index, which only goes back to the START
+    * record of the oldest active transaction, and at most
+    * MAX_INDEXED records.
+    * @param lsn the LSN of a record
+    * @return true if the record can be found by its LSN
+    */
+   public boolean isIndexed(int lsn) {
+      return addresses.containsKey(lsn / INDEX_CHUNK);
    }
 
    /**
-    * Appends a log record to the log buffer. 
-    * The record consists of an arbitrary array of bytes. 
+    * Returns an iterator over the specified records of an
+    * active transaction, in the order given.
+    * The records are read by their addresses, so rolling back
+    * a transaction reads its own records and no others.
+    * The index of addresses only goes back MAX_INDEXED records,
+    * so the records of a transaction that has been running
+    * for long may no longer be in it; the method then returns
+    * null, and the caller has to scan the log instead.
+    * @param lsns the LSNs of the records, in the order to read them
+    * @return an iterator over the records, or null
+    */
+   public Iterator<byte[]> iterator(int[] lsns) {
+      long[] addrs = new long[lsns.length];
+      int latest = 0;
+      for (int i=0; i<addrs.length; i++) {
+         int lsn = lsns[i];
+         long[] chunk = addresses.get(lsn / INDEX_CHUNK);
+         if (chunk == null)
+            return null;
+         addrs[i] = chunk[lsn % INDEX_CHUNK];
+         latest = Math.max(latest, lsn);
+      }
+      ensureWritten(latest);
+      return new LsnIterator(fm, this, addrs);
+   }
+
+   /**
+    * Deletes the segments of the log that hold only records
+    * older than the specified record, and older than the
+    * records of every active transaction.
+    * The segment holding the tail of the log is kept.
+    * @param lsn the LSN of the oldest record still needed,
+    *            such as a checkpoint record
+    */
+   public void truncate(int lsn) {
+      synchronized (activeTxs) {
+         for (int start : activeTxs.values())
+            lsn = Math.min(lsn, start);
+      }
+      lsn = Math.min(lsn, latestLSN);
+      flush(lsn);  // the blocks of the deleted segments must be written
+      synchronized (this) {
+         int keep = segments.firstKey();
+         for (Map.Entry<Integer,Integer> e : segments.entrySet())
+            if (e.getValue() <= lsn)
+               keep = e.getKey();
+         firstBlk = keep * segmentSize;
+         for (int seg : new ArrayList<>(segments.headMap(keep).keySet())) {
+            fm.delete(segmentName(seg));
+            segments.remove(seg);
+         }
+      }
+   }
+
+   /**
+    * Returns the number of live segments of the log.
+    * @return the number of segments
+    */
+   public int segmentCount() {
+      return segments.size();
+   }
+
+   /**
+    * Returns the specified block of the log,
+    * in the segment that holds it.
+    * @param blknum the block number, counted across segments
+    * @return the block of the segment file
+    */
+   BlockId block(int blknum) {
+      return new BlockId(segmentName(blknum / segmentSize), blknum % segmentSize);
+   }
+
+   /**
+    * Returns the number of the first block
+    * of the oldest live segment.
+    * @return the first block of the log
+    */
+   int firstBlock() {
+      return firstBlk;
+   }
+
+   /**
+    * Appends a log record to the log buffer.
+    * The record consists of an arbitrary array of bytes.
     * Log records are written right to left in the buffer.
     * The size of the record is written before the bytes.
     * The beginning of the buffer contains the location
@@ -67,38 +395,205 @@ public class LogMgr {
     * @param logrec a byte buffer containing the bytes.
     * @return the LSN of the final value
     */
-   public synchronized int append(byte[] logrec) {
-      int boundary = logpage.getInt(0);
-      int recsize = logrec.length;
-      int bytesneeded = recsize + Integer.BYTES;
-      if (boundary - bytesneeded < Integer.BYTES) { // the log record doesn't fit,
-         flush();        // so move to the next block.
-         currentblk = appendNewBlock();
-         boundary = logpage.getInt(0);
+   public int append(byte[] logrec) {
+      int bytesneeded = logrec.length + Integer.BYTES;
+      if (bytesneeded > fm.blockSize() - Integer.BYTES)
+         throw new RuntimeException("cannot append a log record of " + logrec.length + " bytes");
+      int lsn, blknum, recpos;
+      synchronized (reserveLock) {
+         if (boundary - bytesneeded < Integer.BYTES) // the log record doesn't fit,
+            moveToNewBlock();                        // so move to the next block.
+         boundary -= bytesneeded;
+         recpos = boundary;
+         blknum = tailblk;
+         lsn = ++latestLSN;
+         lastLSN[slot(blknum)] = lsn;
       }
-      int recpos = boundary - bytesneeded;
+      page(blknum).setBytesConcurrently(recpos, logrec);
+      addressChunk(lsn / INDEX_CHUNK)[lsn % INDEX_CHUNK] = ((long) blknum << 32) | recpos;
+      publish(lsn, blknum, recpos);
+      return lsn;
+   }
 
-      logpage.setBytes(recpos, logrec);
-      logpage.setInt(0, recpos); // the new boundary
-      latestLSN += 1;
-      return latestLSN;
+   /**
+    * Writes the tail of the log to the log file and forces it
+    * to disk, on behalf of the log flusher, once the specified
+    * record and every earlier one have been published.
+    * @param lsn the LSN of the latest requested record
+    * @return the LSN of the latest record now on disk
+    */
+   synchronized int flushTail(int lsn) {
+      awaitPublished(lsn);
+      return writeAndSync();
    }
 
    /**
-    * Initialize the bytebuffer and append it to the log file.
+    * Starts a new block at the tail of the log.
+    * If the block's page in the ring still holds a block
+    * that has not been written, that block is written first.
+    * Called with the reservation lock held.
     */
-   private BlockId appendNewBlock() {
-      BlockId blk = fm.append(logfile);     
-      logpage.setInt(0, fm.blockSize());
-      fm.write(blk, logpage);
-      return blk;
+   private void moveToNewBlock() {
+      int oldblk = tailblk + 1 - ringSize;
+      if (oldblk >= firstUnwritten) {
+         synchronized (this) {
+            awaitPublished(lastLSN[slot(oldblk)]);
+            writeTail();
+         }
+      }
+      int newblk = tailblk + 1;
+      int seg = newblk / segmentSize;
+      if (newblk % segmentSize == 0)
+         addSegment(seg, latestLSN + 1);
+      fm.append(segmentName(seg));
+      boundary = fm.blockSize();
+      tailblk = newblk;
    }
 
    /**
-    * Write the buffer to the log file.
+    * Returns the specified chunk of the address index.
+    * When a chunk is added, the chunks that hold only records
+    * older than every active transaction are dropped,
+    * along with those that would take the index past
+    * MAX_INDEXED records.
     */
-   private void flush() {
-      fm.write(currentblk, logpage);
-      lastSavedLSN = latestLSN;
+   private long[] addressChunk(int n) {
+      long[] chunk = addresses.get(n);
+      if (chunk == null) {
+         chunk = addresses.computeIfAbsent(n, k -> new long[INDEX_CHUNK]);
+         int oldest = Math.max(oldestNeededLSN, (n+1) * INDEX_CHUNK - MAX_INDEXED);
+         addresses.keySet().removeIf(k -> (k+1) * INDEX_CHUNK <= oldest);
+      }
+      return chunk;
+   }
+
+   /**
+    * Ensures that the specified record is in the log file,
+    * though not necessarily on disk.
+    */
+   private void ensureWritten(int lsn) {
+      if (lsn <= lastWrittenLSN)
+         return;
+      synchronized (this) {
+         if (lsn <= lastWrittenLSN)
+            return;
+         awaitPublished(lsn);
+         writeTail();
+      }
+   }
+
+   private void addSegment(int seg, int firstLSN) {
+      String filename = segmentName(seg);
+      // the log is only appended to, so it gains nothing from mapping
+      fm.setStorageMode(filename, FileMgr.StorageMode.STANDARD);
+      fm.setFileClass(filename, FileMgr.FileClass.LOG);
+      segments.put(seg, firstLSN);
+   }
+
+   private String segmentName(int seg) {
+      return logfile + "." + seg;
+   }
+
+   /**
+    * Marks the specified record as copied, and publishes
+    * it along with any later records already copied,
+    * once every earlier record has been published.
+    * The writer does not wait for earlier records;
+    * whichever writer copies the last of them publishes
+    * the records that were waiting for it.
+    */
+   private void publish(int lsn, int blknum, int recpos) {
+      // the mark for this record replaces the one PENDING records back
+      awaitPublished(lsn - PENDING);
+      int i = lsn % PENDING;
+      copiedBlk[i] = blknum;
+      copiedPos[i] = recpos;
+      copiedLSN.set(i, lsn);
+      synchronized (publishLock) {
+         int next = publishedLSN + 1;
+         if (copiedLSN.get(next % PENDING) != next)
+            return;
+         while (copiedLSN.get(next % PENDING) == next) {
+            int j = next % PENDING;
+            publishedBlk = copiedBlk[j];
+            publishedBoundary[slot(publishedBlk)] = copiedPos[j];
+            next++;
+         }
+         publishedLSN = next - 1;
+         publishLock.notifyAll();
+      }
+   }
+
+   /**
+    * Waits until the specified record has been published.
+    * The record has been reserved, so it will be.
+    */
+   private void awaitPublished(int lsn) {
+      boolean interrupted = false;
+      synchronized (publishLock) {
+         while (publishedLSN < lsn) {
+            try {
+               publishLock.wait();
+            }
+            catch (InterruptedException e) {
+               interrupted = true;
+            }
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Writes the pages of the ring that hold published records
+    * not yet written, each with the boundary of its latest
+    * published record.
+    * Called with the log manager's lock held.
+    * @return the LSN of the latest record written
+    */
+   private int writeTail() {
+      int lsn, lastblk;
+      int[] boundaries;
+      synchronized (publishLock) {
+         lsn = publishedLSN;
+         lastblk = publishedBlk;
+         boundaries = new int[lastblk - firstUnwritten + 1];
+         for (int b=firstUnwritten; b<=lastblk; b++)
+            boundaries[b - firstUnwritten] = publishedBoundary[slot(b)];
+      }
+      for (int b=firstUnwritten; b<=lastblk; b++) {
+         Page p = page(b);
+         p.setInt(0, boundaries[b - firstUnwritten]);
+         fm.write(block(b), p);
+      }
+      // a block is done once no more records can go into it
+      boolean done = lastblk < tailblk && lsn >= lastLSN[slot(lastblk)];
+      firstUnwritten = done ? lastblk + 1 : lastblk;
+      lastWrittenBlk = lastblk;
+      lastWrittenLSN = lsn;
+      return lsn;
+   }
+
+   /**
+    * Writes the published tail of the log, and syncs
+    * the segments written since the last sync.
+    * Called with the log manager's lock held.
+    * @return the LSN of the latest record now on disk
+    */
+   private int writeAndSync() {
+      int saved = writeTail();
+      for (int seg=firstUnsynced/segmentSize; seg<=lastWrittenBlk/segmentSize; seg++)
+         fm.sync(segmentName(seg));
+      firstUnsynced = lastWrittenBlk;
+      lastSavedLSN = Math.max(lastSavedLSN, saved);
+      return saved;
+   }
+
+   private int slot(int blknum) {
+      return blknum % ringSize;
+   }
+
+   private Page page(int blknum) {
+      return ring[slot(blknum)];
    }
 }
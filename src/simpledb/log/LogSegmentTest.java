@@ -0,0 +1,64 @@
+package simpledb.log;
+
+import java.util.Iterator;
+import simpledb.server.SimpleDB;
+import simpledb.file.Page;
+
+public class LogSegmentTest {
+   private static LogMgr lm;
+
+   public static void main(String[] args) {
+      SimpleDB.LOG_SEGMENT_SIZE = 4;
+      SimpleDB db = new SimpleDB("logsegmenttest", 400, 8);
+      lm = db.logMgr();
+      createRecords(1, 100);
+      System.out.println(lm.segmentCount() + " segments hold "
+            + countRecords() + " records");
+
+      // an active transaction keeps its records from being truncated
+      int first = lm.appendStart(1000, new byte[100]);
+      createRecords(101, 200);
+      createRecords(201, 300);
+      lm.truncate(first + 150);
+      System.out.println("with an active transaction: " + lm.segmentCount()
+            + " segments hold " + countRecords() + " records");
+
+      lm.txFinished(1000);
+      int last = createRecords(301, 310);
+      lm.truncate(last);
+      System.out.println("after it finishes: " + lm.segmentCount()
+            + " segments hold " + countRecords() + " records");
+      db.shutdown();
+
+      db = new SimpleDB("logsegmenttest", 400, 8);
+      lm = db.logMgr();
+      createRecords(311, 320);
+      System.out.println("after a restart: " + lm.segmentCount()
+            + " segments hold " + countRecords() + " records");
+      db.shutdown();
+   }
+
+   // returns the LSN of the first record
+   private static int createRecords(int start, int end) {
+      int first = -1;
+      for (int i=start; i<=end; i++) {
+         byte[] rec = new byte[100];
+         Page p = new Page(rec);
+         p.setString(0, "record" + i);
+         int lsn = lm.append(rec);
+         if (first < 0)
+            first = lsn;
+      }
+      return first;
+   }
+
+   private static int countRecords() {
+      int count = 0;
+      Iterator<byte[]> iter = lm.iterator();
+      while (iter.hasNext()) {
+         iter.next();
+         count++;
+      }
+      return count;
+   }
+}
@@ -0,0 +1,64 @@
+package simpledb.log;
+
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+import simpledb.file.*;
+
+/**
+ * A class that reads specified records of the log,
+ * in a given order, by their addresses.
+ * No other record is read, and consecutive records
+ * in the same block are read with a single block read.
+ */
+class LsnIterator implements Iterator<byte[]> {
+   private FileMgr fm;
+   private LogMgr lm;
+   private long[] addresses;
+   private int next = 0;
+   private Page p;
+   private Cleaner.Cleanable cleanable;
+   private int blknum = -1;
+
+   /**
+    * Creates an iterator for the records at the specified
+    * addresses, which must have been written to the log file.
+    * The addresses are looked up in advance, since the log
+    * manager may drop them from its index in the meantime.
+    * @param addresses the addresses of the records, in the order to read them
+    */
+   public LsnIterator(FileMgr fm, LogMgr lm, long[] addresses) {
+      this.fm = fm;
+      this.lm = lm;
+      this.addresses = addresses;
+      p = fm.arena().allocate();
+      cleanable = fm.arena().freeWhenUnreachable(this, p);
+   }
+
+   /**
+    * Determines if there are more records to read.
+    * The iterator's page goes back to the page arena
+    * once every record has been read.
+    * @return true if there is another record
+    */
+   public boolean hasNext() {
+      boolean more = next < addresses.length;
+      if (!more)
+         cleanable.clean();
+      return more;
+   }
+
+   /**
+    * Reads the next record, from the block
+    * already read if the record is in it.
+    * @return the next record
+    */
+   public byte[] next() {
+      long address = addresses[next++];
+      int b = (int) (address >>> 32);
+      if (b != blknum) {
+         blknum = b;
+         fm.read(lm.block(blknum), p);
+      }
+      return p.getBytes((int) address);
+   }
+}
@@ -11,6 +11,7 @@ import simpledb.query.*;
  * @author Edward Sciore
  */
 public class SortPlan implements Plan {
+   private static final int MERGE_BUFFERS = 3;
    private Transaction tx;
    private Plan p;
    private Schema sch;
@@ -37,11 +38,19 @@ public class SortPlan implements Plan {
     */
    public Scan open() {
       Scan src = p.open();
-      List<TempTable> runs = splitIntoRuns(src);
-      src.close();
-      while (runs.size() > 2)
-         runs = doAMergeIteration(runs);
-      return new SortScan(runs, comp);
+      // reserve the buffers for the two inputs and
+      // the output of each merge
+      int reserved = tx.reserveBuffers(MERGE_BUFFERS);
+      try {
+         List<TempTable> runs = splitIntoRuns(src);
+         src.close();
+         while (runs.size() > 2)
+            runs = doAMergeIteration(runs);
+         return new SortScan(runs, comp);
+      }
+      finally {
+         tx.releaseBuffers(reserved);
+      }
    }
    
    /**
@@ -112,6 +121,8 @@ public class SortPlan implements Plan {
          TempTable p1 = runs.remove(0);
          TempTable p2 = runs.remove(0);
          result.add(mergeTwoRuns(p1, p2));
+         p1.drop();
+         p2.drop();
       }
       if (runs.size() == 1)
          result.add(runs.get(0));
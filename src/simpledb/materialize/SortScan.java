@@ -15,6 +15,7 @@ import simpledb.record.*;
  */
 public class SortScan implements Scan {
    private UpdateScan s1, s2=null, currentscan=null;
+   private List<TempTable> runs;
    private RecordComparator comp;
    private boolean hasmore1, hasmore2=false;
    private List<RID> savedposition;
@@ -27,6 +28,7 @@ public class SortScan implements Scan {
     * @param comp the record comparator
     */
    public SortScan(List<TempTable> runs, RecordComparator comp) {
+      this.runs = runs;
       this.comp = comp;
       s1 = (UpdateScan) runs.get(0).open();
       hasmore1 = s1.next();
@@ -84,13 +86,16 @@ public class SortScan implements Scan {
    }
    
    /**
-    * Close the two underlying scans.
+    * Close the two underlying scans,
+    * and drop the sorted runs.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       s1.close();
       if (s2 != null)
          s2.close();
+      for (TempTable run : runs)
+         run.drop();
    }
    
    /**
@@ -36,6 +36,14 @@ public class TempTable {
       return new TableScan(tx, tblname, layout);
    }
    
+   /**
+    * Delete the temporary table, once it is no longer needed
+    * and none of its scans is open.
+    */
+   public void drop() {
+      tx.deleteTempFile(tblname + ".tbl");
+   }
+   
    public String tableName() {
       return tblname;
    }
@@ -2,6 +2,7 @@ package simpledb.metadata;
 
 import java.util.*;
 import static simpledb.metadata.TableMgr.MAX_NAME;
+import simpledb.file.FileMgr.FileClass;
 import simpledb.tx.Transaction;
 import simpledb.record.TableScan;
 import simpledb.record.*;
@@ -34,6 +35,12 @@ class IndexMgr {
       this.tblmgr = tblmgr;
       this.statmgr = statmgr;
       layout = tblmgr.getLayout("idxcat", tx);
+
+      // tell the file manager which files hold indexes
+      TableScan ts = new TableScan(tx, "idxcat", layout);
+      while (ts.next())
+         placeIndexFiles(ts.getString("indexname"), tx);
+      ts.close();
    }
    
    /**
@@ -52,6 +59,7 @@ class IndexMgr {
       ts.setString("tablename", tblname);
       ts.setString("fieldname", fldname);
       ts.close();
+      placeIndexFiles(idxname, tx);
    }
    
    /**
@@ -76,4 +84,9 @@ class IndexMgr {
       ts.close();
       return result;
    }
+
+   private void placeIndexFiles(String idxname, Transaction tx) {
+      for (String filename : IndexInfo.fileNames(idxname))
+         tx.placeFile(filename, FileClass.INDEX, null);
+   }
 }
@@ -1,6 +1,7 @@
 package simpledb.metadata;
 
 import java.util.Map;
+import simpledb.file.FileMgr.FileClass;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 
@@ -9,18 +10,29 @@ public class MetadataMgr {
    private static ViewMgr   viewmgr;
    private static StatMgr   statmgr;
    private static IndexMgr  idxmgr;
+   private static TablespaceMgr spacemgr;
    
    public MetadataMgr(boolean isnew, Transaction tx) {
       tblmgr  = new TableMgr(isnew, tx);
       viewmgr = new ViewMgr(isnew, tblmgr, tx);
       statmgr = new StatMgr(tblmgr, tx);
       idxmgr  = new IndexMgr(isnew, tblmgr, statmgr, tx);
+      spacemgr = new TablespaceMgr(tblmgr, tx);
    }
    
    public void createTable(String tblname, Schema sch, Transaction tx) {
       tblmgr.createTable(tblname, sch, tx);
    }
    
+   /**
+    * Creates a table whose file is placed in the
+    * specified tablespace.
+    */
+   public void createTable(String tblname, Schema sch, String tsname, Transaction tx) {
+      spacemgr.setTablespace(tblname, FileClass.TABLE, tsname, tx);
+      tblmgr.createTable(tblname, sch, tx);
+   }
+   
    public Layout getLayout(String tblname, Transaction tx) {
       return tblmgr.getLayout(tblname, tx);
    }
@@ -37,6 +49,15 @@ public class MetadataMgr {
       idxmgr.createIndex(idxname, tblname, fldname, tx);
    }
    
+   /**
+    * Creates an index whose files are placed in the
+    * specified tablespace.
+    */
+   public void createIndex(String idxname, String tblname, String fldname, String tsname, Transaction tx) {
+      spacemgr.setTablespace(idxname, FileClass.INDEX, tsname, tx);
+      idxmgr.createIndex(idxname, tblname, fldname, tx);
+   }
+   
    public Map<String,IndexInfo> getIndexInfo(String tblname, Transaction tx) {
       return idxmgr.getIndexInfo(tblname, tx);
    }
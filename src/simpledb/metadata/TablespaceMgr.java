@@ -0,0 +1,69 @@
+package simpledb.metadata;
+
+import static simpledb.metadata.TableMgr.MAX_NAME;
+import simpledb.file.FileMgr.FileClass;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+
+/**
+ * The tablespace manager.
+ * It records in the catalog table spacecat which tables
+ * and indexes were placed in a tablespace of their own,
+ * and tells the file manager where their files go.
+ * The tablespaces themselves, and the tablespaces of the
+ * log and of temporary tables, are part of the configuration,
+ * since the log has to be found before the catalog can be read.
+ */
+class TablespaceMgr {
+   private Layout layout;
+
+   /**
+    * Creates the catalog table spacecat if it does not exist,
+    * and passes the recorded placements on to the file manager.
+    * @param tblmgr the table manager
+    * @param tx the startup transaction
+    */
+   public TablespaceMgr(TableMgr tblmgr, Transaction tx) {
+      // databases created before tablespaces lack the table
+      if (tblmgr.getLayout("spacecat", tx).slotSize() < 0) {
+         Schema sch = new Schema();
+         sch.addStringField("objname", MAX_NAME);
+         sch.addStringField("objclass", 5);
+         sch.addStringField("tsname", MAX_NAME);
+         tblmgr.createTable("spacecat", sch, tx);
+      }
+      layout = tblmgr.getLayout("spacecat", tx);
+      TableScan ts = new TableScan(tx, "spacecat", layout);
+      while (ts.next())
+         place(ts.getString("objname"), FileClass.valueOf(ts.getString("objclass")),
+               ts.getString("tsname"), tx);
+      ts.close();
+   }
+
+   /**
+    * Places a new table or index in the specified tablespace,
+    * before any of its files are created.
+    * @param objname the name of the table or index
+    * @param objclass TABLE or INDEX
+    * @param tsname the name of the tablespace
+    * @param tx the calling transaction
+    */
+   public void setTablespace(String objname, FileClass objclass, String tsname, Transaction tx) {
+      // an unknown tablespace is rejected before the catalog changes
+      place(objname, objclass, tsname, tx);
+      TableScan ts = new TableScan(tx, "spacecat", layout);
+      ts.insert();
+      ts.setString("objname", objname);
+      ts.setString("objclass", objclass.name());
+      ts.setString("tsname", tsname);
+      ts.close();
+   }
+
+   private void place(String objname, FileClass objclass, String tsname, Transaction tx) {
+      if (objclass == FileClass.INDEX)
+         for (String filename : IndexInfo.fileNames(objname))
+            tx.placeFile(filename, FileClass.INDEX, tsname);
+      else
+         tx.placeFile(objname + ".tbl", FileClass.TABLE, tsname);
+   }
+}
@@ -0,0 +1,61 @@
+package simpledb.metadata;
+
+import java.io.File;
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.plan.*;
+import simpledb.query.*;
+import simpledb.record.*;
+import simpledb.index.Index;
+
+public class TablespaceTest {
+   public static void main(String[] args) {
+      SimpleDB.TABLESPACES.put("fast", "tstest-fast");
+      SimpleDB.TABLESPACES.put("scratch", "tstest-scratch");
+      SimpleDB.LOG_TABLESPACE = "fast";
+      SimpleDB.TEMP_TABLESPACE = "scratch";
+
+      SimpleDB db = new SimpleDB("tstest");
+      MetadataMgr mdm = db.mdMgr();
+      Transaction tx = db.newTx();
+      if (mdm.getLayout("student", tx).slotSize() < 0) {
+         Schema sch = new Schema();
+         sch.addIntField("sid");
+         sch.addStringField("sname", 10);
+         mdm.createTable("student", sch, "fast", tx);
+         mdm.createIndex("sidx", "student", "sid", "scratch", tx);
+         Planner planner = db.planner();
+         for (int i=0; i<20; i++)
+            planner.executeUpdate("insert into student(sid, sname) values("
+                  + i + ", 'student" + i + "')", tx);
+         // looking up a key creates the key's bucket file
+         Index idx = mdm.getIndexInfo("student", tx).get("sid").open();
+         idx.beforeFirst(new Constant(5));
+         idx.close();
+      }
+      tx.commit();
+      db.shutdown();
+
+      // the placements are found again after a restart
+      db = new SimpleDB("tstest");
+      tx = db.newTx();
+      Plan p = db.planner().createQueryPlan("select sid from student", tx);
+      Scan s = p.open();
+      int count = 0;
+      while (s.next())
+         count++;
+      s.close();
+      tx.commit();
+      System.out.println("student has " + count + " records");
+      for (String dir : new String[] {"tstest", "tstest-fast", "tstest-scratch"})
+         System.out.println(dir + ": " + contents(dir));
+      db.shutdown();
+   }
+
+   private static String contents(String dir) {
+      List<String> names = new ArrayList<>(Arrays.asList(new File(dir).list()));
+      Collections.sort(names);
+      return names.size() > 6 ? names.subList(0, 6) + " ..." : names.toString();
+   }
+}
@@ -3,6 +3,7 @@ package simpledb.multibuffer;
 import static java.sql.Types.INTEGER;
 import java.util.*;
 import simpledb.file.BlockId;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
@@ -28,14 +29,28 @@ public class ChunkScan implements Scan {
     * @param tx the current transaction
     */ 
    public ChunkScan(Transaction tx, String filename, Layout layout, int startbnum, int endbnum) {
+      this(tx, filename, layout, startbnum, endbnum, null);
+   }
+
+   /**
+    * Create a chunk whose pages are read through the
+    * specified ring of buffers. Successive chunks of the
+    * same scan can then share the ring's buffers.
+    * @param ring a ring at least as large as the chunk, or null
+    */
+   public ChunkScan(Transaction tx, String filename, Layout layout, int startbnum, int endbnum, BufferRing ring) {
       this.tx = tx;
       this.filename = filename;
       this.layout = layout;
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
+      // read the whole chunk at once; the record pages then
+      // pin blocks that are already in memory
+      tx.pinRange(new BlockId(filename, startbnum), endbnum - startbnum + 1, ring);
       for (int i=startbnum; i<=endbnum; i++) {
          BlockId blk = new BlockId(filename, i);
-         buffs.add(new RecordPage(tx, blk, layout));
+         buffs.add(new RecordPage(tx, blk, layout, ring));
+         tx.unpin(blk);
       }
       moveToBlock(startbnum);
    }
@@ -1,6 +1,7 @@
 package simpledb.multibuffer;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.record.*;
 
@@ -14,7 +15,8 @@ public class MultibufferProductScan implements Scan {
    private Scan lhsscan, rhsscan=null, prodscan;
    private String filename;
    private Layout layout;
-   private int chunksize, nextblknum, filesize;
+   private int chunksize, nextblknum, filesize, reserved;
+   private BufferRing ring;
    
    
    /**
@@ -29,8 +31,13 @@ public class MultibufferProductScan implements Scan {
       this.filename = filename;
       this.layout = layout;
       filesize = tx.size(filename);
-      int available = tx.availableBuffs();
+      // reserve the chunk's buffers, so that pinning
+      // a chunk never waits for another transaction
+      int available = tx.reserveBuffers(filesize + 2);
       chunksize = BufferNeeds.bestFactor(available, filesize);
+      reserved = Math.min(chunksize, available);
+      tx.releaseBuffers(available - reserved);
+      ring = BufferRing.forScan(filesize, tx.bufferPoolSize(), chunksize);
       beforeFirst();
    }
    
@@ -61,11 +68,14 @@ public class MultibufferProductScan implements Scan {
    }
    
    /**
-    * Closes the current scans.
+    * Closes the current scans,
+    * and returns the reserved buffers.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       prodscan.close();
+      tx.releaseBuffers(reserved);
+      reserved = 0;
    }
    
    /** 
@@ -115,7 +125,7 @@ public class MultibufferProductScan implements Scan {
       int end = nextblknum + chunksize - 1;
       if (end >= filesize)
          end = filesize - 1;
-      rhsscan = new ChunkScan(tx, filename, layout, nextblknum, end);
+      rhsscan = new ChunkScan(tx, filename, layout, nextblknum, end, ring);
       lhsscan.beforeFirst();
       prodscan = new ProductScan(lhsscan, rhsscan);
       nextblknum = end + 1;
@@ -1,6 +1,7 @@
 package simpledb.plan;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.metadata.*;
 import simpledb.query.Scan;
 import simpledb.record.*;
@@ -29,10 +30,13 @@ public class TablePlan implements Plan {
    
    /**
     * Creates a table scan for this query.
+    * If the table is large compared to the buffer pool,
+    * then the scan reads it through a private ring of buffers.
     * @see simpledb.plan.Plan#open()
     */
    public Scan open() {
-      return new TableScan(tx, tblname, layout);
+      BufferRing ring = BufferRing.forScan(si.blocksAccessed(), tx.bufferPoolSize(), 1);
+      return new TableScan(tx, tblname, layout, ring);
    }
    
    /**
@@ -2,6 +2,7 @@ package simpledb.record;
 
 import static java.sql.Types.INTEGER;
 import simpledb.file.*;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
@@ -15,10 +16,18 @@ public class RecordPage {
    private Layout layout;
 
    public RecordPage(Transaction tx, BlockId blk, Layout layout) {
+      this(tx, blk, layout, null);
+   }
+
+   /**
+    * Pin the block using the specified ring of buffers.
+    * @param ring the ring of the sequential scan, or null
+    */
+   public RecordPage(Transaction tx, BlockId blk, Layout layout, BufferRing ring) {
       this.tx = tx;
       this.blk = blk;
       this.layout = layout;
-      tx.pin(blk);
+      tx.pin(blk, ring);
    }
 
    /**
@@ -2,6 +2,7 @@ package simpledb.record;
 
 import static java.sql.Types.INTEGER;
 import simpledb.file.BlockId;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
 
@@ -16,12 +17,25 @@ public class TableScan implements UpdateScan {
    private RecordPage rp;
    private String filename;
    private int currentslot;
+   private BufferRing ring;
+   private int knownSize;
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
+      this(tx, tblname, layout, null);
+   }
+
+   /**
+    * Creates a table scan that reads the blocks
+    * of the table through the specified ring of buffers.
+    * @param ring a ring of buffers for a large scan, or null
+    */
+   public TableScan(Transaction tx, String tblname, Layout layout, BufferRing ring) {
       this.tx = tx;
       this.layout = layout;
+      this.ring = ring;
       filename = tblname + ".tbl";
-      if (tx.size(filename) == 0)
+      knownSize = tx.size(filename);
+      if (knownSize == 0)
          moveToNewBlock();
       else 
          moveToBlock(0);
@@ -116,7 +130,7 @@ public class TableScan implements UpdateScan {
    private void moveToBlock(int blknum) {
       close();
       BlockId blk = new BlockId(filename, blknum);
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       currentslot = -1;
    }
 
@@ -128,7 +142,15 @@ public class TableScan implements UpdateScan {
       currentslot = -1;
    }
 
+   /**
+    * Files never shrink, so a block before the last
+    * block of the last known size cannot be the last one;
+    * the size is asked for again only near the end of the file.
+    */
    private boolean atLastBlock() {
-      return rp.block().number() == tx.size(filename) - 1;
+      if (rp.block().number() < knownSize - 1)
+         return false;
+      knownSize = tx.size(filename);
+      return rp.block().number() == knownSize - 1;
    }
 }
@@ -1,10 +1,15 @@
 package simpledb.server;
 
-import java.io.File;
+import java.io.*;
+import java.util.*;
 import simpledb.file.FileMgr;
+import simpledb.file.FileMgr.FileClass;
+import simpledb.file.FileMgr.StorageMode;
 import simpledb.log.LogMgr;
 import simpledb.buffer.BufferMgr;
+import simpledb.buffer.ReplacementPolicy.PolicyType;
 import simpledb.tx.Transaction;
+import simpledb.tx.recovery.Checkpointer;
 import simpledb.metadata.MetadataMgr;
 import simpledb.plan.*;
 import simpledb.index.planner.IndexUpdatePlanner;
@@ -19,12 +24,27 @@ public class SimpleDB {
    public static int BLOCK_SIZE = 400;
    public static int BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static String WARM_FILE = "buffers.warm";
+   public static PolicyType REPLACEMENT_POLICY = PolicyType.LRU;
+   public static int BUFFER_PARTITIONS = BufferMgr.DEFAULT_PARTITIONS;
+   public static int LOG_RING_SIZE = LogMgr.DEFAULT_RING_SIZE;
+   public static int LOG_SEGMENT_SIZE = LogMgr.DEFAULT_SEGMENT_SIZE; // blocks
+   public static long CHECKPOINT_INTERVAL = Checkpointer.DEFAULT_INTERVAL; // milliseconds
+   public static StorageMode STORAGE_MODE = StorageMode.STANDARD;
+   // tablespace names and their directories, in addition to the
+   // default tablespace, which is the database directory
+   public static Map<String,String> TABLESPACES = new HashMap<>();
+   public static String LOG_TABLESPACE   = FileMgr.DEFAULT_TABLESPACE;
+   public static String INDEX_TABLESPACE = FileMgr.DEFAULT_TABLESPACE;
+   public static String TEMP_TABLESPACE  = FileMgr.DEFAULT_TABLESPACE;
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
    private  LogMgr      lm;
    private  MetadataMgr mdm;
    private  Planner planner;
+   private  Checkpointer checkpointer;
+   private  File        dbDirectory;
 
    /**
     * A constructor useful for debugging.
@@ -33,15 +53,34 @@ public class SimpleDB {
     * @param buffsize the number of buffers
     */
    public SimpleDB(String dirname, int blocksize, int buffsize) {
-      File dbDirectory = new File(dirname);
-      fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
-      bm = new BufferMgr(fm, lm, buffsize); 
+      this(dirname, blocksize, buffsize, REPLACEMENT_POLICY);
+   }
+   
+   /**
+    * A constructor useful for comparing buffer replacement policies.
+    * @param dirname the name of the database directory
+    * @param blocksize the block size
+    * @param buffsize the number of buffers
+    * @param policy the buffer replacement policy
+    */
+   public SimpleDB(String dirname, int blocksize, int buffsize, PolicyType policy) {
+      dbDirectory = new File(dirname);
+      fm = new FileMgr(dbDirectory, blocksize, STORAGE_MODE);
+      for (Map.Entry<String,String> e : TABLESPACES.entrySet())
+         fm.addTablespace(e.getKey(), new File(e.getValue()));
+      fm.setTablespace(FileClass.LOG, LOG_TABLESPACE);
+      fm.setTablespace(FileClass.INDEX, INDEX_TABLESPACE);
+      fm.setTablespace(FileClass.TEMP, TEMP_TABLESPACE);
+      lm = new LogMgr(fm, LOG_FILE, LOG_RING_SIZE, LOG_SEGMENT_SIZE);
+      bm = new BufferMgr(fm, lm, buffsize, policy, BUFFER_PARTITIONS);
    }
    
    /**
     * A simpler constructor for most situations. Unlike the
-    * 3-arg constructor, it also initializes the metadata tables.
+    * 3-arg constructor, it also initializes the metadata tables,
+    * and once the database has been recovered, it starts
+    * warming up the buffer pool and writing checkpoints
+    * in the background.
     * @param dirname the name of the database directory
     */
    public SimpleDB(String dirname) {
@@ -61,8 +100,23 @@ public class SimpleDB {
 //    UpdatePlanner up = new IndexUpdatePlanner(mdm);
       planner = new Planner(qp, up);
       tx.commit();
+      warmUp();
+      checkpointer = new Checkpointer(lm, bm, CHECKPOINT_INTERVAL);
+      checkpointer.start();
    }
    
+   /**
+    * Starts reading the blocks that were in the buffer pool
+    * at the last shutdown back into the pool, and saves
+    * the pool's blocks for the next startup from then on.
+    * Must not be called before the database is recovered,
+    * since the warm-up would read blocks that recovery
+    * is about to change on disk.
+    */
+   public void warmUp() {
+      bm.warmUp(new File(dbDirectory, WARM_FILE));
+   }
+
    /**
     * A convenient way for clients to create transactions
     * and access the metadata.
@@ -79,6 +133,36 @@ public class SimpleDB {
       return planner;
    }
 
+   /**
+    * Grows or shrinks the buffer pool while the database is running.
+    * @param buffsize the new number of buffers
+    */
+   public void resizeBufferPool(int buffsize) {
+      bm.resize(buffsize);
+   }
+
+   /**
+    * Shuts the database down cleanly.
+    * The list of blocks in the buffer pool is saved,
+    * so that the next startup can read them back,
+    * and then the background threads are stopped
+    * and the files are closed.
+    * Committed transactions have already been flushed to disk.
+    */
+   public void shutdown() {
+      if (checkpointer != null)
+         checkpointer.stop();
+      bm.saveWarmList();
+      bm.shutdown();
+      lm.shutdown();
+      try {
+         fm.closeAll();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot close database files");
+      }
+   }
+
    // These methods aid in debugging
    public FileMgr fileMgr() {
       return fm;
@@ -89,4 +173,7 @@ public class SimpleDB {
    public BufferMgr bufferMgr() {
       return bm;
    }   
+   public Checkpointer checkpointer() {
+      return checkpointer;
+   }   
  }
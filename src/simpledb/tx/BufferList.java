@@ -6,13 +6,21 @@ import simpledb.buffer.*;
 
 /**
  * Manage the transaction's currently-pinned buffers. 
+ * The list also notices when the transaction pins
+ * consecutive blocks of a file, and then asks the
+ * buffer manager to prefetch the blocks that follow.
+ * Blocks that the transaction pins while it has
+ * buffers reserved are pinned through its reservation.
  * @author Edward Sciore
  */
 class BufferList {
    private Map<BlockId,Buffer> buffers = new HashMap<>();
    private List<BlockId> pins = new ArrayList<>();
+   private Map<String,Readahead> readaheads = new HashMap<>();
+   private BufferReservation reservation = null;
+   private Set<BlockId> reservedBlocks = new HashSet<>();
    private BufferMgr bm;
-  
+
    public BufferList(BufferMgr bm) {
       this.bm = bm;
    }
@@ -33,9 +41,75 @@ class BufferList {
     * @param blk a reference to the disk block
     */
    void pin(BlockId blk) {
-      Buffer buff = bm.pin(blk);
+      pin(blk, null);
+   }
+   
+   /**
+    * Pin the block using the specified ring of buffers,
+    * and keep track of the buffer internally.
+    * @param blk a reference to the disk block
+    * @param ring the scan's ring of buffers, or null
+    */
+   void pin(BlockId blk, BufferRing ring) {
+      Buffer buff;
+      boolean repin = buffers.containsKey(blk);
+      if (reservation != null && !repin) {
+         buff = bm.pin(blk, ring, reservation);
+         reservedBlocks.add(blk);
+      }
+      else
+         buff = bm.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
+      // pinning a block again is not a step of a scan
+      if (!repin)
+         readAhead(blk, ring);
+   }
+
+   /**
+    * Pin a run of consecutive blocks of a file, reading
+    * the ones that are not in memory with as few reads
+    * as possible, and keep track of the buffers internally.
+    * If the transaction already has one of the blocks pinned,
+    * the blocks are simply pinned one at a time.
+    * @param first the first block of the run
+    * @param n the number of blocks
+    * @param ring the scan's ring of buffers, or null
+    */
+   void pinRange(BlockId first, int n, BufferRing ring) {
+      List<BlockId> blocks = new ArrayList<>();
+      boolean held = false;
+      for (int i=0; i<n; i++) {
+         BlockId blk = new BlockId(first.fileName(), first.number() + i);
+         blocks.add(blk);
+         held = held || buffers.containsKey(blk);
+      }
+      if (held) {
+         for (BlockId blk : blocks)
+            pin(blk, ring);
+         return;
+      }
+      Buffer[] buffs = bm.pinRange(first, n, ring, reservation);
+      for (int i=0; i<n; i++) {
+         BlockId blk = blocks.get(i);
+         buffers.put(blk, buffs[i]);
+         pins.add(blk);
+         if (reservation != null)
+            reservedBlocks.add(blk);
+         readAhead(blk, ring);
+      }
+   }
+
+   /**
+    * Continues the file's sequence of consecutive pins
+    * with the specified block, or starts a new one.
+    */
+   private void readAhead(BlockId blk, BufferRing ring) {
+      Readahead ra = readaheads.get(blk.fileName());
+      if (ra != null && ra.continues(blk))
+         ra.pinned(blk, ring);
+      else
+         readaheads.put(blk.fileName(), new Readahead(bm, blk));
    }
    
    /**
@@ -44,10 +118,36 @@ class BufferList {
     */
    void unpin(BlockId blk) {
       Buffer buff = buffers.get(blk);
-      bm.unpin(buff);
       pins.remove(blk);
-      if (!pins.contains(blk))
+      if (!pins.contains(blk)) {
          buffers.remove(blk);
+         if (reservedBlocks.remove(blk)) {
+            bm.unpin(buff, reservation);
+            return;
+         }
+      }
+      bm.unpin(buff);
+   }
+   
+   /**
+    * Reserves up to the specified number of additional buffers
+    * for the transaction.
+    * @param n the number of buffers wanted
+    * @return the number of buffers granted
+    */
+   int reserve(int n) {
+      if (reservation == null)
+         reservation = new BufferReservation(bm);
+      return reservation.reserve(n);
+   }
+   
+   /**
+    * Returns up to the specified number of reserved buffers.
+    * @param n the number of buffers to return
+    */
+   void release(int n) {
+      if (reservation != null)
+         reservation.release(n);
    }
    
    /**
@@ -60,5 +160,10 @@ class BufferList {
       }
       buffers.clear();
       pins.clear();
+      if (reservation != null) {
+         reservation.releaseAll();
+         reservation = null;
+         reservedBlocks.clear();
+      }
    }
 }
\ No newline at end of file
@@ -131,6 +131,31 @@ public class Transaction {
       mybuffers.pin(blk);
    }
    
+   /**
+    * Pin the specified block on behalf of a large sequential scan.
+    * If the block is not in memory, it is read into
+    * one of the buffers of the scan's ring.
+    * @param blk a reference to the disk block
+    * @param ring the scan's ring of buffers, or null
+    */
+   public void pin(BlockId blk, BufferRing ring) {
+      mybuffers.pin(blk, ring);
+   }
+   
+   /**
+    * Pin a run of consecutive blocks of a file.
+    * The blocks that are not in memory are read together,
+    * with one read for each run of them,
+    * rather than with one read per block.
+    * Each block must later be unpinned on its own.
+    * @param first the first block of the run
+    * @param n the number of blocks
+    * @param ring the scan's ring of buffers, or null
+    */
+   public void pinRange(BlockId first, int n, BufferRing ring) {
+      mybuffers.pinRange(first, n, ring);
+   }
+   
    /**
     * Unpin the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -262,6 +287,73 @@ public class Transaction {
       return bm.available();
    }
    
+   /**
+    * Reserves up to the specified number of buffers for
+    * the transaction, out of those that are available now.
+    * The blocks that the transaction pins next use
+    * the reserved buffers, and so never wait for
+    * another transaction to unpin a buffer.
+    * The reservation lasts until it is released
+    * or the transaction ends.
+    * @param n the number of buffers wanted
+    * @return the number of buffers granted
+    */
+   public int reserveBuffers(int n) {
+      return mybuffers.reserve(n);
+   }
+   
+   /**
+    * Returns up to the specified number of reserved buffers
+    * to the buffer pool.
+    * @param n the number of buffers to return
+    */
+   public void releaseBuffers(int n) {
+      mybuffers.release(n);
+   }
+   
+   /**
+    * Deletes the file of a temporary table that is no longer
+    * needed, discarding its blocks from the buffer pool.
+    * The deletion is not logged, and cannot be rolled back,
+    * which is why only temporary tables may be deleted this way.
+    * None of the file's blocks may be pinned.
+    * If its blocks cannot be discarded in time, a
+    * {@link BufferAbortException} is thrown and the file is kept.
+    * @param filename the name of the temporary table's file
+    */
+   public void deleteTempFile(String filename) {
+      if (!filename.startsWith("temp"))
+         throw new RuntimeException("cannot delete " + filename);
+      bm.discard(filename);
+      fm.delete(filename);
+   }
+
+   /**
+    * Sets the class of the specified file, and optionally
+    * places it in a tablespace of its own.
+    * Used by the catalog, which records where tables
+    * and indexes are placed.
+    * @param filename the name of the file
+    * @param fileclass the class of the file
+    * @param tsname the name of the file's tablespace, or null
+    */
+   public void placeFile(String filename, FileMgr.FileClass fileclass, String tsname) {
+      fm.setFileClass(filename, fileclass);
+      if (tsname != null)
+         fm.setTablespace(filename, tsname);
+   }
+
+   /**
+    * Returns the total number of buffers in the buffer pool,
+    * pinned or not.
+    * Scans use it to decide whether a file is large enough
+    * to be read through a ring of buffers.
+    * @return the number of buffers in the pool
+    */
+   public int bufferPoolSize() {
+      return bm.poolSize();
+   }
+   
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       return nextTxNum;
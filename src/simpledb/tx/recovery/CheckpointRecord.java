@@ -1,17 +1,41 @@
 package simpledb.tx.recovery;
 
+import java.util.*;
 import simpledb.file.Page;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 /**
  * The CHECKPOINT log record.
+ * A quiescent checkpoint, written when no transaction
+ * is active, has an empty list of transactions.
+ * A non-quiescent checkpoint lists the transactions that
+ * were active when it was written; recovery has to go back
+ * to the START records of those that did not finish.
+ * A list too long for one log record is split over several
+ * records, each of which says how many parts of the list
+ * were written before it.
  * @author Edward Sciore
  */
 public class CheckpointRecord implements LogRecord {
+   private List<Integer> txs = new ArrayList<>();
+   private int earlier = 0;
+
    public CheckpointRecord() {
    }
 
+   /**
+    * Create a log record by reading the list of
+    * active transactions from the log.
+    * @param p the page containing the log values
+    */
+   public CheckpointRecord(Page p) {
+      earlier = p.getInt(Integer.BYTES);
+      int count = p.getInt(2 * Integer.BYTES);
+      for (int i=0; i<count; i++)
+         txs.add(p.getInt((i+3) * Integer.BYTES));
+   }
+
    public int op() {
       return CHECKPOINT;
    }
@@ -24,6 +48,24 @@ public class CheckpointRecord implements LogRecord {
       return -1; // dummy value
    }
 
+   /**
+    * Returns the transactions that were active
+    * when the checkpoint was written.
+    * @return the ids of the active transactions
+    */
+   public List<Integer> activeTxs() {
+      return txs;
+   }
+
+   /**
+    * Returns the number of parts of the checkpoint's list
+    * of transactions that were written before this one.
+    * @return the number of earlier parts
+    */
+   public int earlierParts() {
+      return earlier;
+   }
+
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
@@ -31,19 +73,58 @@ public class CheckpointRecord implements LogRecord {
    public void undo(Transaction tx) {}
 
    public String toString() {
-      return "<CHECKPOINT>";
+      if (txs.isEmpty())
+         return "<CHECKPOINT>";
+      if (earlier == 0)
+         return "<NQCKPT " + txs + ">";
+      return "<NQCKPT " + txs + " after " + earlier + " parts>";
    }
 
-   /** 
-    * A static method to write a checkpoint record to the log.
+   /**
+    * A static method to write a quiescent checkpoint record
+    * to the log.
     * This log record contains the CHECKPOINT operator,
-    * and nothing else.
+    * and an empty list of transactions.
     * @return the LSN of the last log value
     */
    public static int writeToLog(LogMgr lm) {
-      byte[] rec = new byte[Integer.BYTES];
+      return lm.append(toBytes(Collections.emptyList(), 0));
+   }
+
+   /**
+    * A static method to write a non-quiescent checkpoint
+    * record to the log, listing the transactions that are
+    * active as it is written.
+    * Each log record contains the CHECKPOINT operator, the
+    * number of earlier parts of the list, and the number of
+    * transactions in this part followed by their ids.
+    * @return the LSN of the last log value
+    */
+   public static int writeNonquiescentToLog(LogMgr lm) {
+      int perRecord = lm.maxRecordSize() / Integer.BYTES - 3;
+      return lm.appendCheckpoint(txs -> {
+         List<byte[]> recs = new ArrayList<>();
+         int n = 0;
+         do {
+            int end = Math.min(txs.size(), n + perRecord);
+            recs.add(toBytes(txs.subList(n, end), recs.size()));
+            n = end;
+         } while (n < txs.size());
+         return recs;
+      });
+   }
+
+   private static byte[] toBytes(List<Integer> txs, int earlier) {
+      byte[] rec = new byte[(txs.size() + 3) * Integer.BYTES];
       Page p = new Page(rec);
       p.setInt(0, CHECKPOINT);
-      return lm.append(rec);
+      p.setInt(Integer.BYTES, earlier);
+      p.setInt(2 * Integer.BYTES, txs.size());
+      int pos = 3 * Integer.BYTES;
+      for (int txnum : txs) {
+         p.setInt(pos, txnum);
+         pos += Integer.BYTES;
+      }
+      return rec;
    }
 }
@@ -0,0 +1,60 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Writes a non-quiescent checkpoint while more transactions
+ * are active than fit in one checkpoint record, and then
+ * simulates a crash.
+ * Half of the transactions commit after the checkpoint;
+ * recovery has to undo the other half, whose START records
+ * are before the checkpoint, and keep the committed values.
+ */
+public class CheckpointTest {
+   private static final int TXS = 300;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("checkpointtest", 400, TXS + 50);
+      FileMgr fm = db.fileMgr();
+      while (fm.length("testfile") < TXS)
+         fm.append("testfile");
+
+      Transaction[] txs = new Transaction[TXS];
+      for (int i=0; i<TXS; i++) {
+         BlockId blk = new BlockId("testfile", i);
+         txs[i] = db.newTx();
+         txs[i].pin(blk);
+         txs[i].setInt(blk, 80, i + 1, true);
+      }
+      Checkpointer checkpointer = new Checkpointer(db.logMgr(), db.bufferMgr());
+      checkpointer.checkpoint();
+      for (int i=0; i<TXS; i+=2)
+         txs[i].commit();
+
+      // crash, after the unfinished changes have reached the disk
+      db.bufferMgr().flushAll();
+      for (int i=1; i<TXS; i+=2)
+         txs[i].releaseAll();
+      db.bufferMgr().shutdown();
+      db.logMgr().shutdown();
+
+      db = new SimpleDB("checkpointtest", 400, TXS + 50);
+      Transaction tx = db.newTx();
+      tx.recover();
+      int wrong = 0;
+      for (int i=0; i<TXS; i++) {
+         BlockId blk = new BlockId("testfile", i);
+         tx.pin(blk);
+         int expected = (i % 2 == 0) ? i + 1 : 0;
+         if (tx.getInt(blk, 80) != expected)
+            wrong++;
+         tx.unpin(blk);
+      }
+      tx.commit();
+      System.out.println(TXS + " active transactions at the checkpoint, "
+            + wrong + " wrong values after recovery");
+      db.shutdown();
+   }
+}
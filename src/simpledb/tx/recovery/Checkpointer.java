@@ -0,0 +1,130 @@
+package simpledb.tx.recovery;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.log.LogMgr;
+
+/**
+ * A background thread that writes a non-quiescent checkpoint
+ * at a fixed interval, without stopping the
+ * transactions that are running.
+ * <P>
+ * Each checkpoint writes the dirty buffers that are not pinned,
+ * saves the list of blocks in the buffer pool for the next
+ * startup, and then appends a checkpoint record listing the
+ * active transactions.
+ * Recovery does not need the log before the checkpoint, other
+ * than the records of those transactions, so the log segments
+ * before both are truncated.
+ */
+public class Checkpointer implements Runnable {
+   public static final long DEFAULT_INTERVAL = 30000; // milliseconds
+
+   private LogMgr lm;
+   private BufferMgr bm;
+   private long interval;
+   private boolean stopped = false;
+   private Thread thread;
+   private int checkpoints = 0;
+   private RuntimeException lastFailure = null;
+
+   public Checkpointer(LogMgr lm, BufferMgr bm) {
+      this(lm, bm, DEFAULT_INTERVAL);
+   }
+
+   /**
+    * Creates a checkpointer that writes a checkpoint
+    * every interval milliseconds.
+    * @param interval the time between checkpoints, in milliseconds
+    */
+   public Checkpointer(LogMgr lm, BufferMgr bm, long interval) {
+      if (interval <= 0)
+         throw new IllegalArgumentException("the checkpoint interval must be positive");
+      this.lm = lm;
+      this.bm = bm;
+      this.interval = interval;
+   }
+
+   /**
+    * Starts writing checkpoints in a daemon thread.
+    */
+   public void start() {
+      thread = new Thread(this, "checkpointer");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Stops the checkpointer, and waits for
+    * any checkpoint in progress to finish.
+    */
+   public void stop() {
+      synchronized (this) {
+         stopped = true;
+         notify();
+      }
+      try {
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         // give up waiting
+      }
+   }
+
+   /**
+    * Writes a non-quiescent checkpoint.
+    * @return the LSN of the checkpoint record
+    */
+   public int checkpoint() {
+      bm.writeDirtyBuffers();
+      bm.saveWarmList();
+      int lsn = CheckpointRecord.writeNonquiescentToLog(lm);
+      lm.flush(lsn);
+      lm.truncate(lsn);
+      synchronized (this) {
+         checkpoints++;
+      }
+      return lsn;
+   }
+
+   /**
+    * Returns the number of checkpoints written.
+    * @return the number of checkpoints
+    */
+   public synchronized int checkpoints() {
+      return checkpoints;
+   }
+
+   /**
+    * Returns the exception thrown by the most recent
+    * checkpoint of the thread that failed, if any.
+    * @return the exception, or null if no checkpoint failed
+    */
+   public synchronized RuntimeException lastFailure() {
+      return lastFailure;
+   }
+
+   public void run() {
+      try {
+         while (true) {
+            synchronized (this) {
+               wait(interval);
+               if (stopped)
+                  return;
+            }
+            try {
+               checkpoint();
+            }
+            catch (RuntimeException e) {
+               // report the failure; the next checkpoint may succeed
+               synchronized (this) {
+                  lastFailure = e;
+               }
+               System.err.println("checkpoint failed: " + e.getMessage());
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         // the database is shutting down
+      }
+   }
+}
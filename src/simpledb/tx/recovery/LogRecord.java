@@ -42,7 +42,9 @@ public interface LogRecord {
       Page p = new Page(bytes);
       switch (p.getInt(0)) {
       case CHECKPOINT: 
-         return new CheckpointRecord();
+         if (bytes.length == Integer.BYTES)  // written before checkpoints listed transactions
+            return new CheckpointRecord();
+         return new CheckpointRecord(p);
       case START: 
          return new StartRecord(p);
       case COMMIT: 
@@ -18,6 +18,12 @@ public class RecoveryMgr {
    private BufferMgr bm;
    private Transaction tx;
    private int txnum;
+   private int startLSN;
+   private int lastUpdateLSN = -1;
+   // the LSNs of the transaction's update records, or null once
+   // they are no longer all in the log manager's address index
+   private int[] undoLSNs = new int[16];
+   private int undoCount = 0;
 
    /**
     * Create a recovery manager for the specified transaction.
@@ -28,16 +34,22 @@ public class RecoveryMgr {
       this.txnum = txnum;
       this.lm = lm;
       this.bm = bm;
-      StartRecord.writeToLog(lm, txnum);
+      startLSN = StartRecord.writeToLog(lm, txnum);
    }
 
    /**
     * Write a commit record to the log, and flushes it to disk.
+    * The flush is shared with other committing transactions,
+    * and so is the flush of the transaction's update records
+    * that has to precede the writing of its buffers.
     */
    public void commit() {
+      if (lastUpdateLSN >= 0)
+         lm.flushCommit(lastUpdateLSN);
       bm.flushAll(txnum);
       int lsn = CommitRecord.writeToLog(lm, txnum);
-      lm.flush(lsn);
+      lm.flushCommit(lsn);
+      lm.txFinished(txnum);
    }
 
    /**
@@ -47,18 +59,21 @@ public class RecoveryMgr {
       doRollback();
       bm.flushAll(txnum);
       int lsn = RollbackRecord.writeToLog(lm, txnum);
-      lm.flush(lsn);
+      lm.flushCommit(lsn);
+      lm.txFinished(txnum);
    }
 
    /**
     * Recover uncompleted transactions from the log
     * and then write a quiescent checkpoint record to the log and flush it.
+    * The log segments before the checkpoint are no longer needed.
     */
    public void recover() {
       doRecover();
-      bm.flushAll(txnum);
+      bm.flushAll();
       int lsn = CheckpointRecord.writeToLog(lm);
       lm.flush(lsn);
+      lm.truncate(lsn);
    }
 
    /**
@@ -70,7 +85,9 @@ public class RecoveryMgr {
    public int setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
-      return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      int lsn = SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      recordUndo(lsn);
+      return lsn;
    }
 
    /**
@@ -82,21 +99,70 @@ public class RecoveryMgr {
    public int setString(Buffer buff, int offset, String newval) {
       String oldval = buff.contents().getString(offset);
       BlockId blk = buff.block();
-      return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      int lsn = SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      recordUndo(lsn);
+      return lsn;
    }
 
    /**
-    * Rollback the transaction, by iterating
-    * through the log records until it finds 
-    * the transaction's START record,
-    * calling undo() for each of the transaction's
-    * log records.
+    * Rollback the transaction, by reading
+    * the transaction's update records, from
+    * the most recent back, and calling undo()
+    * for each of them.
+    * The recovery manager keeps the LSNs of the records,
+    * so the log records of other transactions are not read,
+    * unless the log manager no longer knows where they are;
+    * the log is then read back to the transaction's START record.
     */
    private void doRollback() {
+      Iterator<byte[]> iter = null;
+      if (undoLSNs != null) {
+         int[] lsns = new int[undoCount];
+         for (int i=0; i<undoCount; i++)
+            lsns[i] = undoLSNs[undoCount - 1 - i];
+         iter = lm.iterator(lsns);
+      }
+      if (iter == null)
+         scanBack();
+      else {
+         while (iter.hasNext()) {
+            byte[] bytes = iter.next();
+            LogRecord rec = LogRecord.createLogRecord(bytes);
+            rec.undo(tx);
+         }
+      }
+      undoCount = 0;
+   }
+
+   /**
+    * Records the LSN of an update record, for rollback.
+    * Once the transaction's START record has left the log
+    * manager's address index, its records cannot all be found
+    * by their LSNs, so the LSNs are no longer kept, and
+    * a rollback scans the log instead.
+    */
+   private void recordUndo(int lsn) {
+      lastUpdateLSN = lsn;
+      if (undoLSNs == null)
+         return;
+      if (!lm.isIndexed(startLSN)) {
+         undoLSNs = null;
+         return;
+      }
+      if (undoCount == undoLSNs.length)
+         undoLSNs = Arrays.copyOf(undoLSNs, 2 * undoCount);
+      undoLSNs[undoCount++] = lsn;
+   }
+
+   /**
+    * Rolls back the transaction by reading the log from
+    * the most recent record back to its START record.
+    */
+   private void scanBack() {
       Iterator<byte[]> iter = lm.iterator();
       while (iter.hasNext()) {
          byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes); 
+         LogRecord rec = LogRecord.createLogRecord(bytes);
          if (rec.txNumber() == txnum) {
             if (rec.op() == START)
                return;
@@ -110,21 +176,60 @@ public class RecoveryMgr {
     * The method iterates through the log records.
     * Whenever it finds a log record for an unfinished
     * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * The method stops when it encounters a quiescent CHECKPOINT
+    * record or the end of the log.
+    * At a non-quiescent checkpoint, it goes on until it has
+    * found the START records of the listed transactions
+    * that did not finish; every other transaction either
+    * finished before the checkpoint or started after it.
+    * A checkpoint whose list does not fit in one record is
+    * split over several; the list is complete once the
+    * earlier parts have been read too.
     */
    private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<>();
+      Collection<Integer> finishedTxs = new HashSet<>();
+      Collection<Integer> unfinishedAtCheckpoint = null;
+      int partsLeft = 0;
       Iterator<byte[]> iter = lm.iterator();
       while (iter.hasNext()) {
          byte[] bytes = iter.next();
          LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
+         if (rec.op() == CHECKPOINT) {
+            CheckpointRecord ckpt = (CheckpointRecord) rec;
+            if (unfinishedAtCheckpoint == null) {
+               unfinishedAtCheckpoint = new HashSet<>(ckpt.activeTxs());
+               partsLeft = ckpt.earlierParts();
+            }
+            else if (partsLeft > 0) {
+               unfinishedAtCheckpoint.addAll(ckpt.activeTxs());
+               partsLeft--;
+            }
+            else
+               continue;  // an earlier checkpoint
+            if (partsLeft == 0) {
+               unfinishedAtCheckpoint.removeAll(finishedTxs);
+               if (unfinishedAtCheckpoint.isEmpty())
+                  return;
+            }
+         }
+         else if (rec.op() == COMMIT || rec.op() == ROLLBACK) {
             finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
+            // a checkpoint can list a transaction that
+            // was finishing as the checkpoint was written
+            if (unfinishedAtCheckpoint != null && partsLeft == 0) {
+               unfinishedAtCheckpoint.remove(rec.txNumber());
+               if (unfinishedAtCheckpoint.isEmpty())
+                  return;
+            }
+         }
+         else if (!finishedTxs.contains(rec.txNumber())) {
             rec.undo(tx);
+            if (rec.op() == START && unfinishedAtCheckpoint != null && partsLeft == 0) {
+               unfinishedAtCheckpoint.remove(rec.txNumber());
+               if (unfinishedAtCheckpoint.isEmpty())
+                  return;
+            }
+         }
       }
    }
 }
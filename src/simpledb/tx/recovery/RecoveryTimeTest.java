@@ -0,0 +1,77 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures how long recovery takes after a crash,
+ * for logs of several sizes, with and without
+ * non-quiescent checkpoints while the log was written.
+ * Each run commits small transactions, while one transaction
+ * that starts near the end never finishes, and simulates
+ * a crash by abandoning the database without shutting it down.
+ * Recovery then has to undo the unfinished transaction,
+ * going back past the checkpoints that list it.
+ */
+public class RecoveryTimeTest {
+   private static final int[] LOG_SIZES = {1000, 5000, 20000}; // transactions
+   private static final int CHECKPOINT_EVERY = 500; // transactions
+   private static final int BLOCKS = 10;
+
+   public static void main(String[] args) {
+      for (int size : LOG_SIZES)
+         for (boolean checkpoints : new boolean[] {false, true})
+            run(size, checkpoints);
+   }
+
+   private static void run(int size, boolean checkpoints) {
+      String dirname = "recoverytimetest" + size + (checkpoints ? "ckpt" : "");
+      SimpleDB db = new SimpleDB(dirname, 400, 100);
+      Checkpointer checkpointer = new Checkpointer(db.logMgr(), db.bufferMgr());
+      FileMgr fm = db.fileMgr();
+      while (fm.length("testfile") <= BLOCKS)
+         fm.append("testfile");
+
+      Transaction unfinished = null;
+      BlockId unfinishedBlk = new BlockId("testfile", BLOCKS);
+      for (int i=0; i<size; i++) {
+         if (i == size - CHECKPOINT_EVERY * 3 / 2) {
+            unfinished = db.newTx();
+            unfinished.pin(unfinishedBlk);
+            unfinished.setInt(unfinishedBlk, 80, -1, true);
+         }
+         Transaction tx = db.newTx();
+         BlockId blk = new BlockId("testfile", i % BLOCKS);
+         tx.pin(blk);
+         tx.setInt(blk, 80, i, true);
+         tx.commit();
+         if (checkpoints && i % CHECKPOINT_EVERY == CHECKPOINT_EVERY - 1)
+            checkpointer.checkpoint();
+      }
+      // crash, after the unfinished change has reached the disk
+      db.bufferMgr().flushAll();
+      int segments = db.logMgr().segmentCount();
+      unfinished.releaseAll();
+      db.bufferMgr().shutdown();
+      db.logMgr().shutdown();
+
+      db = new SimpleDB(dirname, 400, 100);
+      long start = System.nanoTime();
+      Transaction tx = db.newTx();
+      tx.recover();
+      long micros = (System.nanoTime() - start) / 1000;
+      BlockId blk0 = new BlockId("testfile", 0);
+      tx.pin(blk0);
+      tx.pin(unfinishedBlk);
+      boolean ok = tx.getInt(blk0, 80) == (size - 1) / BLOCKS * BLOCKS
+            && tx.getInt(unfinishedBlk, 80) == 0;
+      tx.commit();
+      System.out.println(size + " transactions, "
+            + (checkpoints ? "with" : "without") + " checkpoints: "
+            + segments + " log segments, recovery took "
+            + String.format("%.1f", micros / 1000.0) + " ms"
+            + (ok ? "" : ", WRONG VALUES"));
+      db.shutdown();
+   }
+}
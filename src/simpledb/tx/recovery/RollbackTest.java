@@ -0,0 +1,54 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Rolls back a small transaction while a long-lived
+ * transaction keeps writing log records, for several
+ * amounts of log written by the long-lived one.
+ * The rollback reads only its own records, so its time
+ * should not grow with the size of the log.
+ */
+public class RollbackTest {
+   private static final int[] PEER_UPDATES = {1000, 10000, 50000};
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("rollbacktest", 400, 8);
+      FileMgr fm = db.fileMgr();
+      while (fm.length("testfile") < 2)
+         fm.append("testfile");
+      BlockId peerblk = new BlockId("testfile", 0);
+      BlockId blk = new BlockId("testfile", 1);
+
+      for (int updates : PEER_UPDATES) {
+         Transaction peer = db.newTx();
+         peer.pin(peerblk);
+         Transaction tx = db.newTx();
+         tx.pin(blk);
+         int oldval = tx.getInt(blk, 80);
+         tx.setInt(blk, 80, oldval + 1, true);
+         for (int i=0; i<updates; i++)
+            peer.setInt(peerblk, 80, i, true);
+         tx.setString(blk, 40, "changed", true);
+
+         long start = System.nanoTime();
+         tx.rollback();
+         long micros = (System.nanoTime() - start) / 1000;
+         peer.commit();
+
+         Transaction check = db.newTx();
+         check.pin(blk);
+         check.pin(peerblk);
+         boolean ok = check.getInt(blk, 80) == oldval
+               && !check.getString(blk, 40).equals("changed")
+               && check.getInt(peerblk, 80) == updates - 1;
+         check.commit();
+         System.out.println("rollback after " + updates + " peer updates took "
+               + String.format("%.2f", micros / 1000.0) + " ms"
+               + (ok ? "" : ", WRONG VALUES"));
+      }
+      db.shutdown();
+   }
+}
@@ -38,6 +38,8 @@ public class StartRecord implements LogRecord {
     * A static method to write a start record to the log.
     * This log record contains the START operator,
     * followed by the transaction id.
+    * The log manager counts the transaction as active
+    * from this record on.
     * @return the LSN of the last log value
     */
    public static int writeToLog(LogMgr lm, int txnum) {
@@ -45,6 +47,6 @@ public class StartRecord implements LogRecord {
       Page p = new Page(rec);
       p.setInt(0, START);
       p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+      return lm.appendStart(txnum, rec);
    }
 }